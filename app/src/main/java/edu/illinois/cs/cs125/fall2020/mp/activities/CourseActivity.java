@@ -2,25 +2,37 @@ package edu.illinois.cs.cs125.fall2020.mp.activities;
 
 import android.content.Intent;
 import android.os.Bundle;
+import android.util.Log;
 import androidx.annotation.Nullable;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.databinding.DataBindingUtil;
+import androidx.test.espresso.IdlingRegistry;
+import androidx.test.espresso.idling.CountingIdlingResource;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import edu.illinois.cs.cs125.fall2020.mp.R;
 import edu.illinois.cs.cs125.fall2020.mp.application.CourseableApplication;
 import edu.illinois.cs.cs125.fall2020.mp.databinding.ActivityCourseBinding;
-import edu.illinois.cs.cs125.fall2020.mp.models.Course;
 import edu.illinois.cs.cs125.fall2020.mp.models.Rating;
 import edu.illinois.cs.cs125.fall2020.mp.models.Summary;
 import edu.illinois.cs.cs125.fall2020.mp.network.Client;
-import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /** Course activity showing the detailed course description. */
 public class CourseActivity extends AppCompatActivity implements Client.CourseClientCallbacks {
   private static final String TAG = CourseActivity.class.getSimpleName();
+  // Numbers each screen's idling resource, since Espresso ignores resources with a taken name
+  private static final AtomicInteger SCREENS = new AtomicInteger();
+
+  private Client client;
+  // Requests this screen is still waiting on, so tests can wait for them rather than sleep
+  private final CountingIdlingResource loading =
+      new CountingIdlingResource(TAG + SCREENS.incrementAndGet());
+  // Set while the stored rating is shown, which is not a change to send back
+  private boolean showingRating;
+  // Set once the rating is changed here, so the stored rating arriving later does not replace it
+  private boolean rated;
 
   /**
    * Deserializes information to send off the description to its page.
@@ -36,54 +48,77 @@ public class CourseActivity extends AppCompatActivity implements Client.CourseCl
     ActivityCourseBinding binding = DataBindingUtil.setContentView(this, R.layout.activity_course);
     mapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
 
+    IdlingRegistry.getInstance().register(loading);
+
     try {
-      Client client = application.getCourseClient();
+      client = application.getCourseClient();
       Summary summary = mapper.readValue(intent.getStringExtra("COURSE"), Summary.class);
-      CompletableFuture<Course> completableFutureC = new CompletableFuture<>();
-      CompletableFuture<Rating> completableFutureR = new CompletableFuture<>();
-
-      client.getCourse(
-          summary,
-          new Client.CourseClientCallbacks() {
-            @Override
-            public void courseResponse(final Summary summary, final Course course) {
-              completableFutureC.complete(course);
-            }
-          });
-      Course course = completableFutureC.get();
       String full = summary.getDepartment() + " " + summary.getNumber() + ": " + summary.getTitle();
       binding.title.setText(full);
-      binding.desc.setText(course.getDescription());
 
       String clientID = application.getClientID();
-      client.getRating(
-          course,
-          clientID,
-          new Client.CourseClientCallbacks() {
-            @Override
-            public void yourRating(final Summary summary, final Rating rating) {
-              completableFutureR.complete(rating);
-            }
-          });
-      Rating rate = completableFutureR.get();
-      binding.rating.setRating((float) rate.getRating());
-      System.out.println(rate.getRating());
-
       binding.rating.setOnRatingBarChangeListener(
           (ratingBar, rate1, fromUser) -> {
-            Rating rating = new Rating(clientID, rate1);
-            client.postRating(
-                summary,
-                rating,
-                new Client.CourseClientCallbacks() {
-                  @Override
-                  public void yourRating(final Summary summary1, final Rating rating) {
-                    completableFutureR.complete(rating);
-                  }
-                });
+            if (showingRating) {
+              return;
+            }
+            rated = true;
+            client.queueRating(summary, new Rating(clientID, rate1));
           });
-    } catch (JsonProcessingException | ExecutionException | InterruptedException e) {
-      e.printStackTrace();
+
+      // Both requests complete off the UI thread, so results are posted back to it
+      loading.increment();
+      client
+          .getCourseAsync(summary)
+          .thenAccept(
+              course ->
+                  runOnUiThread(
+                      () -> {
+                        binding.desc.setText(course.getDescription());
+                        loading.decrement();
+                      }))
+          .exceptionally(error -> failed("course", error));
+
+      loading.increment();
+      client
+          .getRatingAsync(summary, clientID)
+          .thenAccept(
+              rate ->
+                  runOnUiThread(
+                      () -> {
+                        if (!rated) {
+                          showingRating = true;
+                          binding.rating.setRating((float) rate.getRating());
+                          showingRating = false;
+                        }
+                        loading.decrement();
+                      }))
+          .exceptionally(error -> failed("rating", error));
+    } catch (JsonProcessingException e) {
+      Log.e(TAG, "Bad course: " + e);
+    }
+  }
+
+  // Logs a request that failed; the screen keeps whatever it already shows
+  private Void failed(final String what, final Throwable error) {
+    Log.e(TAG, "Loading " + what + " failed: " + error);
+    loading.decrement();
+    return null;
+  }
+
+  /** Stop telling tests about this screen's requests once it is gone. */
+  @Override
+  protected void onDestroy() {
+    IdlingRegistry.getInstance().unregister(loading);
+    super.onDestroy();
+  }
+
+  /** Send any rating changes made on this screen without waiting for the debounce window. */
+  @Override
+  protected void onPause() {
+    super.onPause();
+    if (client != null) {
+      client.flushRatings();
     }
   }
 }
@@ -12,12 +12,18 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.github.wrdlbrnft.sortedlistadapter.SortedListAdapter;
 import edu.illinois.cs.cs125.fall2020.mp.R;
 import edu.illinois.cs.cs125.fall2020.mp.adapters.CourseListAdapter;
+import edu.illinois.cs.cs125.fall2020.mp.adapters.CoursePrefetcher;
 import edu.illinois.cs.cs125.fall2020.mp.application.CourseableApplication;
 import edu.illinois.cs.cs125.fall2020.mp.databinding.ActivityMainBinding;
 import edu.illinois.cs.cs125.fall2020.mp.models.Summary;
+import edu.illinois.cs.cs125.fall2020.mp.models.SummaryIndex;
 import edu.illinois.cs.cs125.fall2020.mp.network.Client;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
 
 /** Main activity showing the course summary list. */
 public final class MainActivity extends AppCompatActivity
@@ -37,9 +43,15 @@ public final class MainActivity extends AppCompatActivity
   private ActivityMainBinding binding;
   // Adapter that connects our list of courses with the list displayed on the display
   private CourseListAdapter listAdapter;
-  // List of courses retrieved from the backend server
-  @SuppressWarnings("FieldCanBeLocal")
-  private List<Summary> courses;
+  // Prefetches details of courses near the visible part of the list
+  private CoursePrefetcher prefetcher;
+  // Search over the courses retrieved from the backend server, replaced when they arrive
+  private volatile SummaryIndex courseIndex;
+  private volatile SummaryIndex.Session courseSearch;
+  // Runs fuzzy searches off the UI thread, one at a time
+  private final ExecutorService fuzzySearch = Executors.newSingleThreadExecutor();
+  // Counts query changes, so results of a superseded fuzzy search are dropped
+  private final AtomicLong queryGeneration = new AtomicLong();
 
   /**
    * Called when this activity is created.
@@ -60,13 +72,20 @@ public final class MainActivity extends AppCompatActivity
     // Setup the list adapter for the list of courses
     listAdapter = new CourseListAdapter(this, this);
     listAdapter.addCallback(this);
-    binding.recyclerView.setLayoutManager(new LinearLayoutManager(this));
+    LinearLayoutManager layoutManager = new LinearLayoutManager(this);
+    binding.recyclerView.setLayoutManager(layoutManager);
     binding.recyclerView.setAdapter(listAdapter);
 
     // Retrieve the API client from the application and initiate a course summary request
     CourseableApplication application = (CourseableApplication) getApplication();
     application.getCourseClient().getSummary(DEFAULT_YEAR, DEFAULT_SEMESTER, this);
 
+    // Fetch details of the courses on screen, and just off it, before they are clicked
+    prefetcher =
+        new CoursePrefetcher(
+            application.getCourseClient(), application.getClientID(), layoutManager, listAdapter);
+    binding.recyclerView.addOnScrollListener(prefetcher);
+
     // Register this component as a callback for changes to the search view component shown above
     // the course list
     // We use these events to initiate course list filtering
@@ -76,6 +95,13 @@ public final class MainActivity extends AppCompatActivity
     setSupportActionBar(binding.toolbar);
   }
 
+  /** Called when this activity is destroyed. Stops any fuzzy search still running. */
+  @Override
+  protected void onDestroy() {
+    fuzzySearch.shutdownNow();
+    super.onDestroy();
+  }
+
   /**
    * Callback called when the client has retrieved the list of courses for this component to
    * display.
@@ -87,7 +113,10 @@ public final class MainActivity extends AppCompatActivity
   @Override
   public void summaryResponse(
       final String year, final String semester, final Summary[] setSummaries) {
-    courses = Arrays.asList(setSummaries);
+    List<Summary> courses = Arrays.asList(setSummaries);
+    SummaryIndex index = new SummaryIndex(courses);
+    courseIndex = index;
+    courseSearch = index.session();
     listAdapter.edit().replaceAll(courses).commit();
   }
 
@@ -104,6 +133,8 @@ public final class MainActivity extends AppCompatActivity
   @Override
   public void onEditFinished() {
     binding.recyclerView.scrollToPosition(0);
+    // Once the new rows have been laid out
+    binding.recyclerView.post(prefetcher::update);
   }
 
   /**
@@ -123,17 +154,49 @@ public final class MainActivity extends AppCompatActivity
   /**
    * Callback fired when the user edits the text in the search query box.
    *
-   * <p>We handle this by updating the list of visible courses.
+   * <p>We handle this by updating the list of visible courses. When no course contains the query,
+   * it is matched again on a background thread allowing for typos, and the list shows the close
+   * matches when that search finishes.
    *
    * @param query the text to use to filter the course list
    * @return true because we handled the action
    */
   @Override
   public boolean onQueryTextChange(final String query) {
-    listAdapter.edit().replaceAll(Summary.filter(courses, query)).commit();
+    long generation = queryGeneration.incrementAndGet();
+    SummaryIndex.Session search = courseSearch;
+    SummaryIndex index = courseIndex;
+    if (search == null || index == null) {
+      return true;
+    }
+    List<Summary> courses = search.filter(query);
+    listAdapter.edit().replaceAll(courses).commit();
+    if (courses.isEmpty() && !query.trim().isEmpty()) {
+      fuzzySearch.execute(() -> searchFuzzily(index, query, generation));
+    }
     return true;
   }
 
+  // Runs on the fuzzy search thread; skips the work if the query has already changed again
+  private void searchFuzzily(final SummaryIndex index, final String text, final long generation) {
+    if (queryGeneration.get() != generation) {
+      return;
+    }
+    List<Summary> courses = new ArrayList<>();
+    for (SummaryIndex.Match match : index.fuzzy(text)) {
+      courses.add(match.getSummary());
+    }
+    if (courses.isEmpty()) {
+      return;
+    }
+    runOnUiThread(
+        () -> {
+          if (queryGeneration.get() == generation) {
+            listAdapter.edit().replaceAll(courses).commit();
+          }
+        });
+  }
+
   /**
    * Callback fired when a user clicks on a course in the list view.
    *
@@ -0,0 +1,135 @@
+package edu.illinois.cs.cs125.fall2020.mp.adapters;
+
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+import edu.illinois.cs.cs125.fall2020.mp.models.Summary;
+import edu.illinois.cs.cs125.fall2020.mp.network.Client;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Prefetches course details for the rows of the course list the user can see or is about to.
+ *
+ * <p>Visible rows are fetched first, then rows just above and below them, nearest first. Prefetches
+ * run one at a time and each session has a total budget. Prefetches for rows that scroll out of
+ * range before they finish are cancelled.
+ *
+ * <p>The client runs prefetches at low priority, but priority only orders requests that are still
+ * queued; a prefetch already on a network thread keeps it until its response arrives. One prefetch
+ * is two requests, the course and its rating, so running one at a time leaves the rest of the
+ * client's network threads free for a course the user actually opens.
+ */
+public final class CoursePrefetcher extends RecyclerView.OnScrollListener {
+  // Rows beyond each edge of the visible range that are also worth fetching
+  private static final int LOOKAHEAD_ROWS = 5;
+  private static final int MAX_IN_FLIGHT = 1;
+  private static final int MAX_PREFETCHES = 100;
+
+  private final Client client;
+  private final String clientID;
+  private final LinearLayoutManager layoutManager;
+  private final CourseListAdapter adapter;
+
+  // Guarded by this
+  private final Map<Summary, CompletableFuture<Void>> inFlight = new HashMap<>();
+  private final Set<Summary> fetched = new HashSet<>();
+  private List<Summary> wanted = new ArrayList<>();
+  private int started;
+
+  /**
+   * Create a prefetcher for a course list.
+   *
+   * @param setClient the client used to fetch and cache course details
+   * @param setClientID the client ID whose ratings are fetched
+   * @param setLayoutManager the layout manager of the course list
+   * @param setAdapter the adapter of the course list
+   */
+  public CoursePrefetcher(
+      @NonNull final Client setClient,
+      @NonNull final String setClientID,
+      @NonNull final LinearLayoutManager setLayoutManager,
+      @NonNull final CourseListAdapter setAdapter) {
+    client = setClient;
+    clientID = setClientID;
+    layoutManager = setLayoutManager;
+    adapter = setAdapter;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void onScrolled(@NonNull final RecyclerView recyclerView, final int dx, final int dy) {
+    update();
+  }
+
+  /** Recompute which rows are worth prefetching. Call on the main thread after the list changes. */
+  public void update() {
+    int first = layoutManager.findFirstVisibleItemPosition();
+    int last = layoutManager.findLastVisibleItemPosition();
+    if (first == RecyclerView.NO_POSITION || last == RecyclerView.NO_POSITION) {
+      return;
+    }
+    int count = adapter.getItemCount();
+    List<Summary> rows = new ArrayList<>();
+    for (int position = first; position <= last && position < count; position++) {
+      rows.add(adapter.getItem(position));
+    }
+    for (int distance = 1; distance <= LOOKAHEAD_ROWS; distance++) {
+      if (last + distance < count) {
+        rows.add(adapter.getItem(last + distance));
+      }
+      if (first - distance >= 0) {
+        rows.add(adapter.getItem(first - distance));
+      }
+    }
+    setWanted(rows);
+  }
+
+  private synchronized void setWanted(@NonNull final List<Summary> rows) {
+    wanted = rows;
+    Set<Summary> keep = new HashSet<>(rows);
+    Iterator<Map.Entry<Summary, CompletableFuture<Void>>> running = inFlight.entrySet().iterator();
+    while (running.hasNext()) {
+      Map.Entry<Summary, CompletableFuture<Void>> prefetch = running.next();
+      if (!keep.contains(prefetch.getKey())) {
+        running.remove();
+        prefetch.getValue().cancel(false);
+      }
+    }
+    startNext();
+  }
+
+  private synchronized void startNext() {
+    for (Summary course : wanted) {
+      if (inFlight.size() >= MAX_IN_FLIGHT || started >= MAX_PREFETCHES) {
+        return;
+      }
+      if (fetched.contains(course) || inFlight.containsKey(course)) {
+        continue;
+      }
+      started++;
+      CompletableFuture<Void> prefetch = client.prefetchCourse(course, clientID);
+      inFlight.put(course, prefetch);
+      prefetch.whenComplete((result, error) -> finished(course, prefetch, error));
+    }
+  }
+
+  private synchronized void finished(
+      @NonNull final Summary course,
+      @NonNull final CompletableFuture<Void> prefetch,
+      final Throwable error) {
+    if (inFlight.get(course) == prefetch) {
+      inFlight.remove(course);
+    }
+    if (error == null) {
+      fetched.add(course);
+    }
+    startNext();
+  }
+}
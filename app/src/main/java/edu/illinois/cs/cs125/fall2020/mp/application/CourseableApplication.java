@@ -3,7 +3,9 @@ package edu.illinois.cs.cs125.fall2020.mp.application;
 import android.app.Application;
 import android.util.Log;
 import edu.illinois.cs.cs125.fall2020.mp.network.Client;
+import edu.illinois.cs.cs125.fall2020.mp.network.OkHttpStack;
 import edu.illinois.cs.cs125.fall2020.mp.network.Server;
+import java.io.File;
 import java.util.UUID;
 
 /**
@@ -19,6 +21,9 @@ public class CourseableApplication extends Application {
   /** Course API server URL. */
   public static final String SERVER_URL = "http://localhost:" + SERVER_PORT + "/";
 
+  // Requests the client may have open to the server at once
+  private static final int MAX_CONNECTIONS_PER_HOST = 4;
+
   // Course API client created during application startup
   private Client client;
 
@@ -28,8 +33,25 @@ public class CourseableApplication extends Application {
   public final void onCreate() {
     Log.i("Startup", "onCreate in Application");
     super.onCreate();
-    client = Client.start();
-    Server.start();
+    client =
+        Client.start(
+            new File(getCacheDir(), "responses"), new OkHttpStack(MAX_CONNECTIONS_PER_HOST));
+    client.setRatingJournal(new File(getFilesDir(), "pending-ratings.json"));
+    client.setCatalogStore(new File(getFilesDir(), "catalog"));
+    Server.start(null, new File(getFilesDir(), "ratings"));
+  }
+
+  /**
+   * Send queued rating changes once the app moves to the background, where it may be killed.
+   *
+   * @param level the memory trim level
+   */
+  @Override
+  public final void onTrimMemory(final int level) {
+    super.onTrimMemory(level);
+    if (level >= TRIM_MEMORY_UI_HIDDEN) {
+      client.flushRatings();
+    }
   }
 
   /**
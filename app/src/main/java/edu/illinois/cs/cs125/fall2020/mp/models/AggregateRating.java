@@ -0,0 +1,57 @@
+package edu.illinois.cs.cs125.fall2020.mp.models;
+
+/** Aggregate of all client ratings for a course. */
+public class AggregateRating {
+  /** Number of star buckets in the histogram. */
+  public static final int STARS = 5;
+
+  private int count;
+  private double average;
+  private int[] histogram;
+
+  /** Creates empty aggregate. */
+  public AggregateRating() {
+    average = Rating.NOT_RATED;
+    histogram = new int[STARS];
+  }
+
+  /**
+   * Creates aggregate.
+   *
+   * @param setCount to number of ratings
+   * @param setAverage to mean rating, or {@link Rating#NOT_RATED} if there are none
+   * @param setHistogram to number of ratings with one through five stars
+   */
+  public AggregateRating(final int setCount, final double setAverage, final int[] setHistogram) {
+    count = setCount;
+    average = setAverage;
+    histogram = setHistogram.clone();
+  }
+
+  /**
+   * Retrieves number of ratings.
+   *
+   * @return count
+   */
+  public final int getCount() {
+    return count;
+  }
+
+  /**
+   * Retrieves mean rating.
+   *
+   * @return average, or {@link Rating#NOT_RATED} if the course has no ratings
+   */
+  public final double getAverage() {
+    return average;
+  }
+
+  /**
+   * Retrieves number of ratings in each star bucket, where index 0 holds one-star ratings.
+   *
+   * @return histogram
+   */
+  public final int[] getHistogram() {
+    return histogram.clone();
+  }
+}
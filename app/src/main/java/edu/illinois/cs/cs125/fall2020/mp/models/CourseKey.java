@@ -0,0 +1,422 @@
+package edu.illinois.cs.cs125.fall2020.mp.models;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Immutable identity of a course: year, semester, department, and number.
+ *
+ * <p>Used instead of {@link Summary} wherever a course is only looked up, such as in maps on the
+ * server and in cache keys on the client. Keys compare equal exactly when summaries with the same
+ * four fields do.
+ *
+ * <p>Keys in the catalog's usual shape are packed into a single long: a four digit year, one of
+ * the four semesters, a department of up to seven capital letters, and a number of up to three
+ * digits. Packed keys compare and hash by that long alone. Keys are interned, so once a course's
+ * key has been interned, looking it up again from a request path, with {@link #parse}, or from
+ * its fields, with {@link #of}, returns the same instance without allocating.
+ */
+public final class CourseKey {
+  private static final int YEAR_DIGITS = 4;
+  private static final int MAX_DEPARTMENT = 7;
+  private static final int MAX_NUMBER = 3;
+  private static final int DECIMAL = 10;
+  private static final int SEMESTER_BITS = 2;
+  private static final int LETTER_BITS = 5;
+  private static final int DIGIT_BITS = 4;
+  // 2^64 divided by the golden ratio, which scatters consecutive values across the table
+  private static final long SPREAD_MULTIPLIER = 0x9E3779B97F4A7C15L;
+  private static final String[] SEMESTERS = {"spring", "summer", "fall", "winter"};
+  // Packed value of keys that do not fit the layout; a packed department is never zero
+  private static final long UNPACKED = 0;
+
+  /**
+   * Open-addressed table of interned packed keys.
+   *
+   * <p>Slots are written value first and then key, both with volatile semantics, so readers never
+   * lock: a reader that sees a key also sees its value. Only one writer runs at a time, and a full
+   * table is replaced by a larger copy rather than resized in place.
+   */
+  private static final class Table {
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final int LOAD_NUMERATOR = 3;
+    private static final int LOAD_DENOMINATOR = 4;
+
+    private final AtomicLongArray keys;
+    private final AtomicReferenceArray<CourseKey> values;
+    private final int mask;
+    private int size;
+
+    private Table(final int capacity) {
+      keys = new AtomicLongArray(capacity);
+      values = new AtomicReferenceArray<>(capacity);
+      mask = capacity - 1;
+    }
+
+    @Nullable
+    private CourseKey get(final long packed) {
+      for (int slot = spread(packed) & mask; ; slot = (slot + 1) & mask) {
+        long key = keys.get(slot);
+        if (key == packed) {
+          return values.get(slot);
+        } else if (key == UNPACKED) {
+          return null;
+        }
+      }
+    }
+
+    private void put(@NonNull final CourseKey course) {
+      int slot = spread(course.packed) & mask;
+      while (keys.get(slot) != UNPACKED) {
+        slot = (slot + 1) & mask;
+      }
+      values.set(slot, course);
+      keys.set(slot, course.packed);
+      size++;
+    }
+
+    private boolean isFull() {
+      return (size + 1) * LOAD_DENOMINATOR > keys.length() * LOAD_NUMERATOR;
+    }
+
+    private Table grow() {
+      Table bigger = new Table(keys.length() * 2);
+      for (int slot = 0; slot < keys.length(); slot++) {
+        if (keys.get(slot) != UNPACKED) {
+          bigger.put(values.get(slot));
+        }
+      }
+      return bigger;
+    }
+  }
+
+  private static volatile Table interned = new Table(Table.INITIAL_CAPACITY);
+  private static final Map<String, CourseKey> INTERNED_UNPACKED = new ConcurrentHashMap<>();
+
+  private final String year;
+  private final String semester;
+  private final String department;
+  private final String number;
+  private final String path;
+  private final long packed;
+  private final int hash;
+
+  private CourseKey(
+      @NonNull final String setYear,
+      @NonNull final String setSemester,
+      @NonNull final String setDepartment,
+      @NonNull final String setNumber,
+      final long setPacked) {
+    year = setYear;
+    semester = setSemester;
+    department = setDepartment;
+    number = setNumber;
+    path = year + "/" + semester + "/" + department + "/" + number;
+    packed = setPacked;
+    if (packed == UNPACKED) {
+      hash = path.hashCode();
+    } else {
+      hash = spread(packed);
+    }
+  }
+
+  /**
+   * Get the key for a course.
+   *
+   * @param year the course's year
+   * @param semester the course's semester
+   * @param department the course's department
+   * @param number the course's number
+   * @return the interned key if there is one, and otherwise a new key
+   */
+  public static CourseKey of(
+      @NonNull final String year,
+      @NonNull final String semester,
+      @NonNull final String department,
+      @NonNull final String number) {
+    long packed =
+        pack(
+            year(year, 0, year.length()),
+            semester(semester, 0, semester.length()),
+            department(department, 0, department.length()),
+            number(number, 0, number.length()));
+    CourseKey existing = lookup(packed, year, semester, department, number);
+    if (existing != null) {
+      return existing;
+    }
+    return new CourseKey(year, semester, department, number, packed);
+  }
+
+  /**
+   * Get the key for a course summary.
+   *
+   * @param summary the course summary
+   * @return the interned key if there is one, and otherwise a new key
+   */
+  public static CourseKey of(@NonNull final Summary summary) {
+    return of(
+        summary.getYear(), summary.getSemester(), summary.getDepartment(), summary.getNumber());
+  }
+
+  /**
+   * Get the key for a course from the "YEAR/SEMESTER/DEPARTMENT/NUMBER" part of a path.
+   *
+   * @param text the text containing the path
+   * @param start the index of the first character of the year
+   * @param end the index just past the last character of the number
+   * @return the interned key if there is one, and otherwise a new key, or null if the range does
+   *     not have exactly four parts
+   */
+  @Nullable
+  public static CourseKey parse(@NonNull final String text, final int start, final int end) {
+    int first = text.indexOf('/', start);
+    if (first < 0 || first >= end) {
+      return null;
+    }
+    int second = text.indexOf('/', first + 1);
+    if (second < 0 || second >= end) {
+      return null;
+    }
+    int third = text.indexOf('/', second + 1);
+    if (third < 0 || third >= end) {
+      return null;
+    }
+    int extra = text.indexOf('/', third + 1);
+    if (extra >= 0 && extra < end) {
+      return null;
+    }
+    long packed =
+        pack(
+            year(text, start, first),
+            semester(text, first + 1, second),
+            department(text, second + 1, third),
+            number(text, third + 1, end));
+    if (packed != UNPACKED) {
+      CourseKey existing = interned.get(packed);
+      if (existing != null) {
+        return existing;
+      }
+    }
+    return of(
+        text.substring(start, first),
+        text.substring(first + 1, second),
+        text.substring(second + 1, third),
+        text.substring(third + 1, end));
+  }
+
+  @Nullable
+  private static CourseKey lookup(
+      final long packed,
+      @NonNull final String year,
+      @NonNull final String semester,
+      @NonNull final String department,
+      @NonNull final String number) {
+    if (packed != UNPACKED) {
+      return interned.get(packed);
+    }
+    return INTERNED_UNPACKED.get(year + "/" + semester + "/" + department + "/" + number);
+  }
+
+  /**
+   * Get the canonical instance of this key, making this the canonical instance if there is none.
+   *
+   * <p>Interned keys are kept for the life of the process, so only keys of courses known to exist
+   * should be interned.
+   *
+   * @return the interned key equal to this one
+   */
+  public CourseKey intern() {
+    if (packed == UNPACKED) {
+      CourseKey existing = INTERNED_UNPACKED.putIfAbsent(path, this);
+      if (existing != null) {
+        return existing;
+      }
+      return this;
+    }
+    CourseKey existing = interned.get(packed);
+    if (existing != null) {
+      return existing;
+    }
+    synchronized (Table.class) {
+      Table table = interned;
+      existing = table.get(packed);
+      if (existing != null) {
+        return existing;
+      }
+      if (table.isFull()) {
+        table = table.grow();
+      }
+      table.put(this);
+      interned = table;
+      return this;
+    }
+  }
+
+  // Combine packed parts, or return UNPACKED if any of them did not fit the layout
+  private static long pack(
+      final long year, final long semester, final long department, final long number) {
+    if (year < 0 || semester < 0 || department < 0 || number < 0) {
+      return UNPACKED;
+    }
+    return ((year << SEMESTER_BITS | semester) << (LETTER_BITS * MAX_DEPARTMENT)
+            | department) << (DIGIT_BITS * MAX_NUMBER)
+        | number;
+  }
+
+  private static long year(@NonNull final CharSequence text, final int start, final int end) {
+    if (end - start != YEAR_DIGITS) {
+      return -1;
+    }
+    long year = 0;
+    for (int i = start; i < end; i++) {
+      char c = text.charAt(i);
+      if (c < '0' || c > '9') {
+        return -1;
+      }
+      year = year * DECIMAL + (c - '0');
+    }
+    return year;
+  }
+
+  // Letters are stored off by one, so a shorter department cannot collide with a longer one
+  private static long department(
+      @NonNull final CharSequence text, final int start, final int end) {
+    if (end - start < 1 || end - start > MAX_DEPARTMENT) {
+      return -1;
+    }
+    long department = 0;
+    for (int i = 0; i < MAX_DEPARTMENT; i++) {
+      int letter = 0;
+      if (start + i < end) {
+        char c = text.charAt(start + i);
+        if (c < 'A' || c > 'Z') {
+          return -1;
+        }
+        letter = c - 'A' + 1;
+      }
+      department = department << LETTER_BITS | letter;
+    }
+    return department;
+  }
+
+  private static long number(@NonNull final CharSequence text, final int start, final int end) {
+    if (end - start < 1 || end - start > MAX_NUMBER) {
+      return -1;
+    }
+    long number = 0;
+    for (int i = 0; i < MAX_NUMBER; i++) {
+      int digit = 0;
+      if (start + i < end) {
+        char c = text.charAt(start + i);
+        if (c < '0' || c > '9') {
+          return -1;
+        }
+        // Off by one for the same reason as department letters
+        digit = c - '0' + 1;
+      }
+      number = number << DIGIT_BITS | digit;
+    }
+    return number;
+  }
+
+  private static int semester(
+      @NonNull final CharSequence text, final int start, final int end) {
+    for (int s = 0; s < SEMESTERS.length; s++) {
+      String name = SEMESTERS[s];
+      if (name.length() != end - start) {
+        continue;
+      }
+      boolean matches = true;
+      for (int i = 0; i < name.length() && matches; i++) {
+        matches = text.charAt(start + i) == name.charAt(i);
+      }
+      if (matches) {
+        return s;
+      }
+    }
+    return -1;
+  }
+
+  // Mix the packed bits so nearby keys land in different table slots
+  private static int spread(final long packed) {
+    long mixed = packed * SPREAD_MULTIPLIER;
+    return (int) (mixed ^ (mixed >>> Integer.SIZE));
+  }
+
+  /**
+   * Get the course's year.
+   *
+   * @return the year
+   */
+  public String getYear() {
+    return year;
+  }
+
+  /**
+   * Get the course's semester.
+   *
+   * @return the semester
+   */
+  public String getSemester() {
+    return semester;
+  }
+
+  /**
+   * Get the course's department.
+   *
+   * @return the department
+   */
+  public String getDepartment() {
+    return department;
+  }
+
+  /**
+   * Get the course's number.
+   *
+   * @return the number
+   */
+  public String getNumber() {
+    return number;
+  }
+
+  /**
+   * Get the key as a "YEAR/SEMESTER/DEPARTMENT/NUMBER" path, computed once.
+   *
+   * @return the path
+   */
+  public String getPath() {
+    return path;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public boolean equals(final Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof CourseKey)) {
+      return false;
+    }
+    CourseKey other = (CourseKey) o;
+    if (packed != other.packed) {
+      return false;
+    }
+    return packed != UNPACKED || path.equals(other.path);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public int hashCode() {
+    return hash;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public String toString() {
+    return path;
+  }
+}
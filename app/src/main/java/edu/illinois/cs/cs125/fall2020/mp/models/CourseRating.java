@@ -0,0 +1,39 @@
+package edu.illinois.cs.cs125.fall2020.mp.models;
+
+/** One client's rating of one course, as submitted in a batch. */
+public class CourseRating {
+  private Summary course;
+  private Rating rating;
+
+  /** Creates empty course rating. */
+  public CourseRating() {}
+
+  /**
+   * Creates course rating.
+   *
+   * @param setCourse to course being rated
+   * @param setRating to rating, whose ID identifies the client
+   */
+  public CourseRating(final Summary setCourse, final Rating setRating) {
+    course = setCourse;
+    rating = setRating;
+  }
+
+  /**
+   * Retrieves course being rated.
+   *
+   * @return course
+   */
+  public final Summary getCourse() {
+    return course;
+  }
+
+  /**
+   * Retrieves rating of the course.
+   *
+   * @return rating
+   */
+  public final Rating getRating() {
+    return rating;
+  }
+}
@@ -4,6 +4,7 @@ package edu.illinois.cs.cs125.fall2020.mp.models;
 // import android.util.Log;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import com.github.wrdlbrnft.sortedlistadapter.SortedListAdapter;
 import java.util.ArrayList;
 import java.util.Comparator;
@@ -16,6 +17,10 @@ import java.util.Objects;
  * <p>You will need to complete this model for MP0.
  */
 public class Summary implements SortedListAdapter.ViewModel {
+  private static final int HASH_MULTIPLIER = 31;
+  // Sorts before any character that can appear in a department or number
+  private static final char KEY_SEPARATOR = '\u0000';
+
   private String year;
 
   /**
@@ -113,7 +118,12 @@ public class Summary implements SortedListAdapter.ViewModel {
   /** {@inheritDoc} */
   @Override
   public int hashCode() {
-    return Objects.hash(year, semester, department, number);
+    // Same value as Objects.hash, without allocating its varargs array on every lookup
+    int hash = 1;
+    hash = HASH_MULTIPLIER * hash + Objects.hashCode(year);
+    hash = HASH_MULTIPLIER * hash + Objects.hashCode(semester);
+    hash = HASH_MULTIPLIER * hash + Objects.hashCode(department);
+    return HASH_MULTIPLIER * hash + Objects.hashCode(number);
   }
 
   /** {@inheritDoc} */
@@ -128,23 +138,63 @@ public class Summary implements SortedListAdapter.ViewModel {
     return equals(model);
   }
 
-  /** Compares courses by department, number, and title. */
+  // Built on first comparison and kept, so sorting compares one string per pair of summaries
+  private transient String sortKey;
+
+  private String sortKey() {
+    String key = sortKey;
+    if (key == null) {
+      key = collationKey(department, number, title);
+      sortKey = key;
+    }
+    return key;
+  }
+
+  /**
+   * Build the string that orders courses the same way as {@link #COMPARATOR}.
+   *
+   * <p>Course numbers order by the value of their leading digits, so "CS 1000" follows "CS 999",
+   * and any remaining characters break ties. Numbers that differ only in leading zeros, such as
+   * "099" and "99", order by title and then by the numbers as written, so distinct courses never
+   * compare equal. A missing title orders like an empty one.
+   *
+   * @param department the course's department
+   * @param number the course's number
+   * @param title the course's title, or null if it has none
+   * @return a key whose natural string order is the course order
+   */
+  public static String collationKey(
+      @NonNull final String department,
+      @NonNull final String number,
+      @Nullable final String title) {
+    String name = "";
+    if (title != null) {
+      name = title;
+    }
+    int start = 0;
+    while (start < number.length() && number.charAt(start) == '0') {
+      start++;
+    }
+    int end = start;
+    while (end < number.length() && Character.isDigit(number.charAt(end))) {
+      end++;
+    }
+    // Prefixing the digit count makes longer numbers sort after shorter ones
+    return new StringBuilder(department.length() + 2 * number.length() + name.length() + 3 + 1)
+        .append(department)
+        .append(KEY_SEPARATOR)
+        .append((char) (end - start))
+        .append(number, start, number.length())
+        .append(KEY_SEPARATOR)
+        .append(name)
+        .append(KEY_SEPARATOR)
+        .append(number)
+        .toString();
+  }
+
+  /** Compares courses by department, number, and title, with numbers in numeric order. */
   public static final Comparator<Summary> COMPARATOR =
-      (courseModel1, courseModel2) -> {
-        if (courseModel1.department.compareTo(courseModel2.department) > 0) {
-          return 1;
-        } else if (courseModel1.department.compareTo(courseModel2.department) < 0) {
-          return -1;
-        } else {
-          if (courseModel1.number.compareTo(courseModel2.number) > 0) {
-            return 1;
-          } else if (courseModel1.number.compareTo(courseModel2.number) < 0) {
-            return -1;
-          } else {
-            return Integer.compare(courseModel1.title.compareTo(courseModel2.title), 0);
-          }
-        }
-      };
+      (courseModel1, courseModel2) -> courseModel1.sortKey().compareTo(courseModel2.sortKey());
 
   /**
    * To be used by MP0Test.java.
@@ -0,0 +1,428 @@
+package edu.illinois.cs.cs125.fall2020.mp.models;
+
+import androidx.annotation.NonNull;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Substring index over a list of course summaries, matching the same way as {@link
+ * Summary#filter}.
+ *
+ * <p>Each summary's "DEPARTMENT NUMBER: TITLE" name is lowercased once when the index is built,
+ * and every run of three characters in it is added to a posting list of the summaries containing
+ * it. A query of three or more characters only checks the summaries whose posting lists contain
+ * every one of its trigrams, and shorter queries scan the prepared names. Either way no strings are
+ * built per summary while the user types. A {@link Session} goes further and narrows its previous
+ * result when the query is extended.
+ *
+ * <p>{@link #fuzzy} is a typo-tolerant alternative to filtering. It ignores case, spaces, and
+ * punctuation, and allows a few edits between the query and part of a summary's name. The
+ * summaries it checks are those long enough and sharing enough trigrams with the query, and the
+ * edit distance computation stops extending a column once no cell in it can stay within the
+ * allowed edits, so most candidates cost a few cells per character of their name. It is slower
+ * than filtering, so callers should run it off the UI thread.
+ */
+public final class SummaryIndex {
+  private static final int GRAM = 3;
+  private static final int CHAR_BITS = 16;
+  // Fuzzy queries allow one edit per this many characters, up to the maximum
+  private static final int CHARS_PER_EDIT = 4;
+  private static final int MAX_EDITS = 2;
+
+  private final Summary[] summaries;
+  private final String[] names;
+  // Positions of the summaries containing each trigram, in ascending order
+  private final Map<Long, int[]> postings;
+  // Names reduced to lowercase letters and digits, and their trigram postings, for fuzzy matching
+  private final String[] compactNames;
+  private final Map<Long, int[]> compactPostings;
+  // Every count is zero between fuzzy searches
+  private final ThreadLocal<Scratch> scratch =
+      new ThreadLocal<Scratch>() {
+        /** {@inheritDoc} */
+        @Override
+        protected Scratch initialValue() {
+          return new Scratch(summaries.length);
+        }
+      };
+
+  /** Trigram counts reused by the fuzzy searches of one thread. */
+  private static final class Scratch {
+    private final int[] shared;
+    private final int[] candidates;
+
+    private Scratch(final int size) {
+      shared = new int[size];
+      candidates = new int[size];
+    }
+  }
+
+  /**
+   * Build an index over a list of summaries.
+   *
+   * @param courses the summaries to index; later changes to the list are not seen by the index
+   */
+  public SummaryIndex(@NonNull final List<Summary> courses) {
+    summaries = courses.toArray(new Summary[0]);
+    names = new String[summaries.length];
+    compactNames = new String[summaries.length];
+    for (int i = 0; i < summaries.length; i++) {
+      Summary course = summaries[i];
+      names[i] =
+          (course.getDepartment() + " " + course.getNumber() + ": " + course.getTitle())
+              .toLowerCase();
+      compactNames[i] = compact(names[i]);
+    }
+    postings = postings(names);
+    compactPostings = postings(compactNames);
+  }
+
+  private static Map<Long, int[]> postings(@NonNull final String[] texts) {
+    Map<Long, int[]> building = new HashMap<>();
+    for (int i = 0; i < texts.length; i++) {
+      String text = texts[i];
+      for (int start = 0; start + GRAM <= text.length(); start++) {
+        long gram = gram(text, start);
+        int[] list = building.get(gram);
+        if (list == null) {
+          list = new int[2];
+          building.put(gram, list);
+        }
+        // Slot 0 holds the count; skip repeats of a trigram within one text
+        int count = list[0];
+        if (count > 0 && list[count] == i) {
+          continue;
+        }
+        if (count + 1 == list.length) {
+          list = Arrays.copyOf(list, list.length * 2);
+          building.put(gram, list);
+        }
+        list[count + 1] = i;
+        list[0] = count + 1;
+      }
+    }
+    Map<Long, int[]> built = new HashMap<>();
+    for (Map.Entry<Long, int[]> entry : building.entrySet()) {
+      int[] list = entry.getValue();
+      built.put(entry.getKey(), Arrays.copyOfRange(list, 1, list[0] + 1));
+    }
+    return built;
+  }
+
+  // Lowercase letters and digits only, so "CS 225" and "cs225" compare equal
+  private static String compact(@NonNull final String text) {
+    StringBuilder compacted = new StringBuilder(text.length());
+    for (int i = 0; i < text.length(); i++) {
+      char c = text.charAt(i);
+      if (Character.isLetterOrDigit(c)) {
+        compacted.append(Character.toLowerCase(c));
+      }
+    }
+    return compacted.toString();
+  }
+
+  private static long gram(@NonNull final String text, final int start) {
+    return ((long) text.charAt(start) << (2 * CHAR_BITS))
+        | ((long) text.charAt(start + 1) << CHAR_BITS)
+        | text.charAt(start + 2);
+  }
+
+  /**
+   * Filtering session that refines the previous result as the query grows.
+   *
+   * <p>When a query contains the previous one, as it does when the user types another character,
+   * only the previous matches can still match, so only they are checked and the cost follows the
+   * size of the result rather than the catalog. Any other change, such as deleting a character,
+   * goes back to the index.
+   *
+   * <p>A session remembers one query at a time and is meant to be used from a single thread.
+   */
+  public final class Session {
+    private String lastQuery;
+    private int[] lastMatches;
+
+    private Session() {}
+
+    /**
+     * Find the summaries whose name contains the given text, ignoring case.
+     *
+     * @param text the text to search for
+     * @return the matching summaries, in the order of the indexed list
+     */
+    public List<Summary> filter(@NonNull final String text) {
+      String query = text.toLowerCase();
+      int[] matches;
+      if (lastQuery != null && query.contains(lastQuery)) {
+        matches = lastMatches;
+        if (!query.equals(lastQuery)) {
+          matches = refine(lastMatches, query);
+        }
+      } else {
+        matches = positions(query);
+      }
+      lastQuery = query;
+      lastMatches = matches;
+      return summaries(matches);
+    }
+  }
+
+  /**
+   * Start a filtering session over this index.
+   *
+   * @return a new session
+   */
+  public Session session() {
+    return new Session();
+  }
+
+  /**
+   * Find the summaries whose name contains the given text, ignoring case.
+   *
+   * @param text the text to search for
+   * @return the matching summaries, in the order of the indexed list
+   */
+  public List<Summary> filter(@NonNull final String text) {
+    return summaries(positions(text.toLowerCase()));
+  }
+
+  private List<Summary> summaries(@NonNull final int[] positions) {
+    List<Summary> output = new ArrayList<>(positions.length);
+    for (int i : positions) {
+      output.add(summaries[i]);
+    }
+    return output;
+  }
+
+  // Positions of the names containing an already lowercased query, in ascending order
+  private int[] positions(@NonNull final String query) {
+    if (query.length() < GRAM) {
+      int[] matches = new int[names.length];
+      int size = 0;
+      for (int i = 0; i < names.length; i++) {
+        if (names[i].contains(query)) {
+          matches[size++] = i;
+        }
+      }
+      return Arrays.copyOf(matches, size);
+    }
+
+    // Intersect the posting lists of the query's trigrams, shortest first
+    int grams = query.length() - GRAM + 1;
+    int[][] lists = new int[grams][];
+    for (int start = 0; start < grams; start++) {
+      int[] list = postings.get(gram(query, start));
+      if (list == null) {
+        return new int[0];
+      }
+      lists[start] = list;
+    }
+    Arrays.sort(lists, (first, second) -> Integer.compare(first.length, second.length));
+    int[] candidates = Arrays.copyOf(lists[0], lists[0].length);
+    int size = candidates.length;
+    for (int l = 1; l < lists.length && size > 0; l++) {
+      size = intersect(candidates, size, lists[l]);
+    }
+
+    // Trigrams can all be present without being adjacent, so confirm each candidate
+    return refine(Arrays.copyOf(candidates, size), query);
+  }
+
+  // Keep the positions whose names contain the query
+  private int[] refine(@NonNull final int[] positions, @NonNull final String query) {
+    int[] matches = new int[positions.length];
+    int size = 0;
+    for (int i : positions) {
+      if (names[i].contains(query)) {
+        matches[size++] = i;
+      }
+    }
+    return Arrays.copyOf(matches, size);
+  }
+
+  // Narrow the first size candidates to those also in the list, returning how many remain. Both
+  // are in ascending order.
+  private static int intersect(
+      @NonNull final int[] candidates, final int size, @NonNull final int[] list) {
+    int kept = 0;
+    int j = 0;
+    for (int c = 0; c < size && j < list.length; c++) {
+      while (j < list.length && list[j] < candidates[c]) {
+        j++;
+      }
+      if (j < list.length && list[j] == candidates[c]) {
+        candidates[kept++] = candidates[c];
+      }
+    }
+    return kept;
+  }
+
+  /** A summary found by {@link #fuzzy}, with how closely it matched. */
+  public static final class Match {
+    private final Summary summary;
+    private final int distance;
+
+    private Match(@NonNull final Summary setSummary, final int setDistance) {
+      summary = setSummary;
+      distance = setDistance;
+    }
+
+    /**
+     * Get the matching summary.
+     *
+     * @return the summary
+     */
+    public Summary getSummary() {
+      return summary;
+    }
+
+    /**
+     * Get the number of edits needed to find the query in the summary's name.
+     *
+     * @return the edit distance, where 0 is an exact match
+     */
+    public int getDistance() {
+      return distance;
+    }
+  }
+
+  /**
+   * Find the summaries whose name contains the given text with a few typos, ignoring case, spaces,
+   * and punctuation.
+   *
+   * <p>One insertion, deletion, or substitution is allowed per four characters of the query, up
+   * to two. Shorter queries must match exactly. Candidates are the summaries sharing enough of the
+   * query's trigrams to be within that many edits, and at least one, and only they are checked.
+   * Safe to call from any thread.
+   *
+   * @param text the text to search for
+   * @return the matching summaries, closest first and then in the order of the indexed list
+   */
+  public List<Match> fuzzy(@NonNull final String text) {
+    String query = compact(text);
+    List<Match> matches = new ArrayList<>();
+    if (query.length() < GRAM) {
+      for (int i = 0; i < compactNames.length; i++) {
+        if (compactNames[i].contains(query)) {
+          matches.add(new Match(summaries[i], 0));
+        }
+      }
+      return matches;
+    }
+    int edits = Math.min(MAX_EDITS, query.length() / CHARS_PER_EDIT);
+
+    // Count each summary's distinct trigrams in common with the query
+    Scratch current = scratch.get();
+    int[] shared = current.shared;
+    int[] candidates = current.candidates;
+    int size = 0;
+    try {
+      int distinct = 0;
+      for (int start = 0; start + GRAM <= query.length(); start++) {
+        long gram = gram(query, start);
+        if (seenBefore(query, start, gram)) {
+          continue;
+        }
+        distinct++;
+        int[] list = compactPostings.get(gram);
+        if (list == null) {
+          continue;
+        }
+        for (int i : list) {
+          if (shared[i]++ == 0) {
+            candidates[size++] = i;
+          }
+        }
+      }
+
+      // Each edit destroys at most three trigrams of the query, and a name shorter than the query
+      // less the allowed edits cannot contain it
+      int needed = Math.max(1, distinct - GRAM * edits);
+      int shortest = query.length() - edits;
+      Arrays.sort(candidates, 0, size);
+      for (int c = 0; c < size; c++) {
+        int i = candidates[c];
+        if (shared[i] < needed || compactNames[i].length() < shortest) {
+          continue;
+        }
+        int distance = distance(query, compactNames[i], edits);
+        if (distance <= edits) {
+          matches.add(new Match(summaries[i], distance));
+        }
+      }
+    } finally {
+      for (int c = 0; c < size; c++) {
+        shared[candidates[c]] = 0;
+      }
+    }
+    // Stable, so equally close matches stay in list order
+    Collections.sort(matches, (first, second) -> Integer.compare(first.distance, second.distance));
+    return matches;
+  }
+
+  private static boolean seenBefore(@NonNull final String query, final int start, final long gram) {
+    for (int earlier = 0; earlier < start; earlier++) {
+      if (gram(query, earlier) == gram) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /*
+   * Fewest edits turning the query into some substring of the text, or edits + 1 if that is more
+   * than edits. Computes one column of the edit distance table per text character, with a free
+   * start anywhere in the text. A cell's value can grow by at most one from one row to the next, so
+   * each column is only computed down to one row past the last cell within the allowed edits in
+   * the previous column; every cell below that is known to be over the limit.
+   */
+  private static int distance(
+      @NonNull final String query, @NonNull final String text, final int edits) {
+    int length = query.length();
+    int[] column = new int[length + 1];
+    for (int q = 0; q < column.length; q++) {
+      column[q] = q;
+    }
+    // Last row whose cell in the current column is within the allowed edits
+    int last = Math.min(length, edits);
+    int best = edits + 1;
+    for (int t = 0; t < text.length() && best > 0; t++) {
+      char c = text.charAt(t);
+      int bottom = Math.min(length, last + 1);
+      if (bottom > last) {
+        // Stale from an earlier column, and over the limit in this one
+        column[bottom] = edits + 1;
+      }
+      int diagonal = column[0];
+      for (int q = 1; q <= bottom; q++) {
+        int above = column[q];
+        int substitute = diagonal;
+        if (query.charAt(q - 1) != c) {
+          substitute++;
+        }
+        column[q] = Math.min(substitute, Math.min(above, column[q - 1]) + 1);
+        diagonal = above;
+      }
+      last = bottom;
+      while (column[last] > edits) {
+        last--;
+      }
+      if (last == length) {
+        best = Math.min(best, column[length]);
+      }
+    }
+    return best;
+  }
+
+  /**
+   * Get the number of indexed summaries.
+   *
+   * @return the number of summaries
+   */
+  public int size() {
+    return summaries.length;
+  }
+}
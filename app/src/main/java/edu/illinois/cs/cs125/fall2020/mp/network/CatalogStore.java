@@ -0,0 +1,177 @@
+package edu.illinois.cs.cs125.fall2020.mp.network;
+
+import android.util.Log;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Catalog responses kept on disk so the client can answer from them before reaching the server.
+ *
+ * <p>Each response is stored in its own file named after its URL, holding the ETag it was served
+ * with followed by the body exactly as the server sent it. The ETag lets the client revalidate a
+ * stored response instead of downloading it again. A file is replaced by renaming a complete
+ * temporary file over it, so a crash leaves either the old or the new response and never a mix.
+ *
+ * <p>Unlike Volley's cache, entries here never expire, since any stored copy is better than none
+ * while the server is unreachable. Once the files exceed a byte budget, the least recently read or
+ * written ones are deleted.
+ */
+final class CatalogStore {
+  private static final String TAG = CatalogStore.class.getSimpleName();
+  private static final String SUFFIX = ".json";
+
+  /** A stored response. */
+  static final class Entry {
+    private final String etag;
+    private final byte[] data;
+
+    private Entry(@NonNull final String setETag, @NonNull final byte[] setData) {
+      etag = setETag;
+      data = setData;
+    }
+
+    /**
+     * Get the ETag the response was served with.
+     *
+     * @return the quoted ETag
+     */
+    String getETag() {
+      return etag;
+    }
+
+    /**
+     * Get the response body.
+     *
+     * @return the JSON bytes
+     */
+    byte[] getData() {
+      return data;
+    }
+  }
+
+  private final File directory;
+  private final long budget;
+
+  /**
+   * Create a store in a directory, which is created when the first response is stored.
+   *
+   * @param setDirectory the directory holding stored responses
+   * @param setBudget the most bytes of stored responses to keep
+   */
+  CatalogStore(@NonNull final File setDirectory, final long setBudget) {
+    directory = setDirectory;
+    budget = setBudget;
+  }
+
+  /**
+   * Read a stored response.
+   *
+   * @param url the URL the response was retrieved from
+   * @return the response, or null if none is stored or it cannot be read
+   */
+  @Nullable
+  Entry get(@NonNull final String url) {
+    File file = file(url);
+    try (DataInputStream input =
+        new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+      String etag = input.readUTF();
+      byte[] data = new byte[input.readInt()];
+      input.readFully(data);
+      // Recently read responses are the last to be evicted
+      if (!file.setLastModified(System.currentTimeMillis())) {
+        Log.w(TAG, "Failed to touch " + file);
+      }
+      return new Entry(etag, data);
+    } catch (FileNotFoundException e) {
+      return null;
+    } catch (IOException | NegativeArraySizeException e) {
+      Log.e(TAG, "Discarding unreadable " + file + ": " + e);
+      if (!file.delete()) {
+        Log.e(TAG, "Failed to delete " + file);
+      }
+      return null;
+    }
+  }
+
+  /**
+   * Store a response, replacing any stored for the same URL, and evict others if the store is over
+   * its budget.
+   *
+   * @param url the URL the response was retrieved from
+   * @param etag the ETag the response was served with
+   * @param data the response body
+   * @throws IOException if the response cannot be written
+   */
+  void put(@NonNull final String url, @NonNull final String etag, @NonNull final byte[] data)
+      throws IOException {
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Cannot create " + directory);
+    }
+    File file = file(url);
+    File temporary = new File(file.getPath() + ".tmp");
+    try (FileOutputStream stream = new FileOutputStream(temporary);
+        DataOutputStream output = new DataOutputStream(stream)) {
+      output.writeUTF(etag);
+      output.writeInt(data.length);
+      output.write(data);
+      output.flush();
+      stream.getFD().sync();
+    }
+    if (!temporary.renameTo(file)) {
+      throw new IOException("Cannot replace " + file);
+    }
+    evict(file);
+  }
+
+  // Delete the least recently used responses until the rest fit the budget, keeping the given one
+  private void evict(@NonNull final File keep) {
+    File[] files = directory.listFiles((dir, name) -> name.endsWith(SUFFIX));
+    if (files == null) {
+      return;
+    }
+    long total = 0;
+    // Read once, so the order cannot change while sorting
+    Map<File, Long> used = new HashMap<>();
+    for (File file : files) {
+      total += file.length();
+      used.put(file, file.lastModified());
+    }
+    if (total <= budget) {
+      return;
+    }
+    Arrays.sort(files, (first, second) -> Long.compare(used.get(first), used.get(second)));
+    for (int i = 0; i < files.length && total > budget; i++) {
+      File file = files[i];
+      if (file.equals(keep)) {
+        continue;
+      }
+      long length = file.length();
+      if (file.delete()) {
+        total -= length;
+      } else {
+        Log.e(TAG, "Failed to evict " + file);
+      }
+    }
+  }
+
+  private File file(@NonNull final String url) {
+    try {
+      return new File(directory, URLEncoder.encode(url, "UTF-8") + SUFFIX);
+    } catch (UnsupportedEncodingException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+}
@@ -2,26 +2,52 @@ package edu.illinois.cs.cs125.fall2020.mp.network;
 
 import android.util.Log;
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import com.android.volley.Cache;
 import com.android.volley.ExecutorDelivery;
 import com.android.volley.Network;
 import com.android.volley.Request;
 import com.android.volley.RequestQueue;
+import com.android.volley.Response;
+import com.android.volley.toolbox.BaseHttpStack;
 import com.android.volley.toolbox.BasicNetwork;
+import com.android.volley.toolbox.DiskBasedCache;
 import com.android.volley.toolbox.HurlStack;
-import com.android.volley.toolbox.NoCache;
 import com.android.volley.toolbox.StringRequest;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
 import edu.illinois.cs.cs125.fall2020.mp.application.CourseableApplication;
+import edu.illinois.cs.cs125.fall2020.mp.models.AggregateRating;
 import edu.illinois.cs.cs125.fall2020.mp.models.Course;
+import edu.illinois.cs.cs125.fall2020.mp.models.CourseKey;
+import edu.illinois.cs.cs125.fall2020.mp.models.CourseRating;
 import edu.illinois.cs.cs125.fall2020.mp.models.Rating;
 import edu.illinois.cs.cs125.fall2020.mp.models.Summary;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.UnaryOperator;
 
 /**
  * Course API client.
@@ -30,7 +56,24 @@ import java.util.concurrent.Executors;
  */
 public final class Client {
   private static final String TAG = Client.class.getSimpleName();
-  private static final int INITIAL_CONNECTION_RETRY_DELAY = 1000;
+  // Startup probes back off exponentially from the initial delay up to the maximum, with jitter,
+  // and give up once the server has not answered for the startup timeout
+  private static final long INITIAL_CONNECTION_RETRY_DELAY = 10;
+  private static final long MAX_CONNECTION_RETRY_DELAY = 1000;
+  private static final long STARTUP_TIMEOUT = TimeUnit.SECONDS.toMillis(10);
+  private static final Response.ErrorListener LOG_ERROR = error -> Log.e(TAG, error.toString());
+  // Queued ratings are sent once no newer rating has been queued for this long
+  private static final long RATING_DEBOUNCE = 750;
+  // Delay before queued ratings are sent again after a batch fails
+  private static final long RATING_RETRY_DELAY = TimeUnit.SECONDS.toMillis(30);
+  // Shared timer for withTimeout and rating flushes, which also writes the rating journal
+  private static final ScheduledExecutorService SCHEDULER =
+      Executors.newSingleThreadScheduledExecutor(
+          runnable -> {
+            Thread thread = new Thread(runnable, TAG);
+            thread.setDaemon(true);
+            return thread;
+          });
 
   /**
    * Course API client callback interface.
@@ -62,6 +105,14 @@ public final class Client {
      * @param rating for the course
      */
     default void yourRating(Summary summary, Rating rating) {}
+
+    /**
+     * Return aggregate of all ratings for the given summary.
+     *
+     * @param summary of the course
+     * @param aggregate of the ratings for the course
+     */
+    default void aggregateRating(Summary summary, AggregateRating aggregate) {}
   }
 
   /**
@@ -75,21 +126,35 @@ public final class Client {
       @NonNull final String year,
       @NonNull final String semester,
       @NonNull final CourseClientCallbacks callbacks) {
-    String url = CourseableApplication.SERVER_URL + "summary/" + year + "/" + semester;
-    StringRequest summaryRequest =
-        new StringRequest(
-            Request.Method.GET,
-            url,
-            response -> {
-              try {
-                Summary[] courses = objectMapper.readValue(response, Summary[].class);
-                callbacks.summaryResponse(year, semester, courses);
-              } catch (JsonProcessingException e) {
-                e.printStackTrace();
-              }
-            },
-            error -> Log.e(TAG, error.toString()));
-    requestQueue.add(summaryRequest);
+    getCatalog(
+        "getSummary",
+        summaryUrl(year, semester),
+        summaryFlights,
+        summaryReader,
+        courses -> callbacks.summaryResponse(year, semester, sorted(courses)));
+  }
+
+  /**
+   * Retrieve course summaries for a given year and semester asynchronously.
+   *
+   * @param year the year to retrieve
+   * @param semester the semester to retrieve
+   * @return a future completing with the summaries, or with the request's error
+   */
+  public CompletableFuture<Summary[]> getSummaryAsync(
+      @NonNull final String year, @NonNull final String semester) {
+    return getCatalogAsync(
+        "getSummary", summaryUrl(year, semester), summaryFlights, summaryReader, Client::sorted);
+  }
+
+  /*
+   * Copy summaries in display order. The server already sends them sorted, so this costs one
+   * comparison per summary and computes each summary's sort key here rather than on the UI thread.
+   */
+  private static Summary[] sorted(@NonNull final Summary[] courses) {
+    Summary[] copy = courses.clone();
+    Arrays.sort(copy, Summary.COMPARATOR);
+    return copy;
   }
 
   /**
@@ -100,30 +165,23 @@ public final class Client {
    */
   public void getCourse(
       @NonNull final Summary summary, @NonNull final CourseClientCallbacks callbacks) {
-    String url =
-        (CourseableApplication.SERVER_URL
-            + "course/"
-            + summary.getYear()
-            + "/"
-            + summary.getSemester()
-            + "/"
-            + summary.getDepartment()
-            + "/"
-            + summary.getNumber());
-    StringRequest summaryRequest =
-        new StringRequest(
-            Request.Method.GET,
-            url,
-            response -> {
-              try {
-                Course course = objectMapper.readValue(response, Course.class);
-                callbacks.courseResponse(summary, course);
-              } catch (JsonProcessingException e) {
-                e.printStackTrace();
-              }
-            },
-            error -> Log.e(TAG, error.toString()));
-    requestQueue.add(summaryRequest);
+    getCatalog(
+        "getCourse",
+        courseUrl(summary),
+        courseFlights,
+        courseReader,
+        course -> callbacks.courseResponse(summary, course));
+  }
+
+  /**
+   * Retrieve course for a given summary asynchronously.
+   *
+   * @param summary to retrieve
+   * @return a future completing with the course, or with the request's error
+   */
+  public CompletableFuture<Course> getCourseAsync(@NonNull final Summary summary) {
+    return getCatalogAsync(
+        "getCourse", courseUrl(summary), courseFlights, courseReader, UnaryOperator.identity());
   }
 
   /**
@@ -137,32 +195,343 @@ public final class Client {
       @NonNull final Summary summary,
       @NonNull final String clientID,
       @NonNull final CourseClientCallbacks callbacks) {
-    String url =
-        (CourseableApplication.SERVER_URL
-                + "rating/"
-                + summary.getYear()
-                + "/"
-                + summary.getSemester()
-                + "/"
-                + summary.getDepartment()
-                + "/"
-                + summary.getNumber())
-            + "?client="
-            + clientID;
-    StringRequest ratingRequest =
-        new StringRequest(
-            Request.Method.GET,
+    Rating pending = pendingRating(summary, clientID);
+    if (pending != null) {
+      // On the same thread as every other result, and after this call returns
+      delivery.execute(() -> callbacks.yourRating(summary, pending));
+      return;
+    }
+    getShared(
+        "getRating",
+        ratingUrl(summary, clientID),
+        RATING_TTL,
+        Request.Priority.NORMAL,
+        ratingFlights,
+        ratingReader,
+        rating -> callbacks.yourRating(summary, rating),
+        LOG_ERROR);
+  }
+
+  /**
+   * Retrieve rating for a given summary asynchronously.
+   *
+   * @param summary of the course
+   * @param clientID to refer to
+   * @return a future completing with the rating, or with the request's error
+   */
+  public CompletableFuture<Rating> getRatingAsync(
+      @NonNull final Summary summary, @NonNull final String clientID) {
+    Rating pending = pendingRating(summary, clientID);
+    if (pending != null) {
+      return CompletableFuture.supplyAsync(() -> pending, asyncExecutor);
+    }
+    return getAsync(
+        "getRating",
+        ratingUrl(summary, clientID),
+        RATING_TTL,
+        Request.Priority.NORMAL,
+        ratingFlights,
+        ratingReader,
+        UnaryOperator.identity());
+  }
+
+  /**
+   * Retrieve aggregate of all ratings for a given summary.
+   *
+   * @param summary of the course
+   * @param callbacks to send out
+   */
+  public void getAggregateRating(
+      @NonNull final Summary summary, @NonNull final CourseClientCallbacks callbacks) {
+    getShared(
+        "getAggregateRating",
+        aggregateUrl(summary),
+        RATING_TTL,
+        Request.Priority.NORMAL,
+        aggregateFlights,
+        aggregateReader,
+        aggregate -> callbacks.aggregateRating(summary, aggregate),
+        LOG_ERROR);
+  }
+
+  /**
+   * Fetch a course's details and the client's rating of it ahead of need, so opening the course
+   * is answered from the cache.
+   *
+   * <p>Prefetches run at low priority, so Volley dispatches user-initiated requests ahead of any
+   * that are still queued. Cancelling the future abandons the prefetch unless a user request is
+   * sharing it.
+   *
+   * @param summary of the course
+   * @param clientID to prefetch the rating for
+   * @return a future completing once both responses are cached
+   */
+  public CompletableFuture<Void> prefetchCourse(
+      @NonNull final Summary summary, @NonNull final String clientID) {
+    CompletableFuture<Course> course =
+        getAsync(
+            "getCourse",
+            courseUrl(summary),
+            CATALOG_TTL,
+            Request.Priority.LOW,
+            courseFlights,
+            courseReader,
+            UnaryOperator.identity());
+    CompletableFuture<Rating> rating =
+        getAsync(
+            "getRating",
+            ratingUrl(summary, clientID),
+            RATING_TTL,
+            Request.Priority.LOW,
+            ratingFlights,
+            ratingReader,
+            UnaryOperator.identity());
+    CompletableFuture<Void> both = CompletableFuture.allOf(course, rating);
+    both.whenComplete(
+        (result, error) -> {
+          if (error != null) {
+            course.cancel(false);
+            rating.cancel(false);
+          }
+        });
+    return both;
+  }
+
+  /*
+   * Issue a conditional GET, unless the same URL is already in flight, in which case just wait for
+   * that request's result.
+   */
+  private <T> void getShared(
+      @NonNull final String name,
+      @NonNull final String url,
+      final long ttl,
+      @NonNull final Request.Priority priority,
+      @NonNull final SingleFlight<T> flights,
+      @NonNull final ObjectReader reader,
+      @NonNull final Response.Listener<T> listener,
+      @NonNull final Response.ErrorListener errorListener) {
+    SingleFlight.Call<T> call = flights.join(url, listener, errorListener);
+    if (call == null) {
+      return;
+    }
+    ConditionalRequest<T> request =
+        new ConditionalRequest<>(
             url,
-            response -> {
-              try {
-                Rating rating = objectMapper.readValue(response, Rating.class);
-                callbacks.yourRating(summary, rating);
-              } catch (JsonProcessingException e) {
-                e.printStackTrace();
-              }
-            },
-            error -> Log.e(TAG, error.toString()));
-    requestQueue.add(ratingRequest);
+            validators,
+            ttl,
+            priority,
+            reader,
+            metrics,
+            result -> flights.complete(call, result),
+            error -> flights.fail(call, error));
+    flights.start(call, request);
+    enqueue(name, request);
+  }
+
+  /**
+   * Keep catalog responses in a local store so later launches can show them before the server
+   * answers.
+   *
+   * <p>Once set, summaries and courses found in the store are returned right away and then
+   * revalidated with the server in the background. Callbacks are called again only if the server's
+   * copy differs, and the store is updated to match. The store is read in the background, and
+   * stored results reach callbacks on the same thread as results from the server, and before them.
+   *
+   * @param directory directory for stored catalog responses
+   */
+  public void setCatalogStore(@NonNull final File directory) {
+    catalogStore = new CatalogStore(directory, CATALOG_STORE_BYTES);
+  }
+
+  /*
+   * Answer a catalog GET from the store when it has the URL, then revalidate with the server and
+   * answer again only with a different result. Without a store this is a plain shared GET. The
+   * store is read and parsed on the async executor, never on the caller's thread.
+   */
+  private <T> void getCatalog(
+      @NonNull final String name,
+      @NonNull final String url,
+      @NonNull final SingleFlight<T> flights,
+      @NonNull final ObjectReader reader,
+      @NonNull final Response.Listener<T> listener) {
+    if (catalogStore == null) {
+      revalidate(name, url, flights, reader, null, listener);
+      return;
+    }
+    asyncExecutor.execute(
+        () -> {
+          T stored = storedValue(url, reader);
+          if (stored != null) {
+            // Ahead of anything the queue delivers for this request, on the same thread
+            delivery.execute(() -> listener.onResponse(stored));
+          }
+          revalidate(name, url, flights, reader, stored, listener);
+        });
+  }
+
+  /*
+   * Future version of getCatalog. The future completes with the stored result when there is one,
+   * and otherwise with the server's.
+   */
+  private <T> CompletableFuture<T> getCatalogAsync(
+      @NonNull final String name,
+      @NonNull final String url,
+      @NonNull final SingleFlight<T> flights,
+      @NonNull final ObjectReader reader,
+      @NonNull final UnaryOperator<T> copy) {
+    if (catalogStore == null) {
+      return fetchCatalog(name, url, flights, reader, copy);
+    }
+    CompletableFuture<T> future = new CompletableFuture<>();
+    asyncExecutor.execute(
+        () -> {
+          T stored = storedValue(url, reader);
+          if (stored != null) {
+            revalidate(name, url, flights, reader, stored, result -> {});
+            future.complete(copy.apply(stored));
+            return;
+          }
+          CompletableFuture<T> fetched = fetchCatalog(name, url, flights, reader, copy);
+          // A caller that stops waiting on the future stops waiting on the request too
+          future.whenComplete(
+              (result, error) -> {
+                if (error != null) {
+                  fetched.cancel(false);
+                }
+              });
+          fetched.whenComplete(
+              (result, error) -> {
+                if (error != null) {
+                  future.completeExceptionally(error);
+                } else {
+                  future.complete(result);
+                }
+              });
+        });
+    return future;
+  }
+
+  // Fetch a catalog response from the server and save it to the store once it arrives
+  private <T> CompletableFuture<T> fetchCatalog(
+      @NonNull final String name,
+      @NonNull final String url,
+      @NonNull final SingleFlight<T> flights,
+      @NonNull final ObjectReader reader,
+      @NonNull final UnaryOperator<T> copy) {
+    CompletableFuture<T> future =
+        getAsync(name, url, CATALOG_TTL, Request.Priority.NORMAL, flights, reader, copy);
+    future.thenRun(() -> storeValue(url));
+    return future;
+  }
+
+  /*
+   * A 304 or an unchanged cache entry yields the validator's value, which is the stored result
+   * itself, so any other result means the catalog changed.
+   */
+  private <T> void revalidate(
+      @NonNull final String name,
+      @NonNull final String url,
+      @NonNull final SingleFlight<T> flights,
+      @NonNull final ObjectReader reader,
+      @Nullable final T stored,
+      @NonNull final Response.Listener<T> listener) {
+    getShared(
+        name,
+        url,
+        CATALOG_TTL,
+        Request.Priority.NORMAL,
+        flights,
+        reader,
+        result -> {
+          if (result != stored) {
+            storeValue(url);
+            listener.onResponse(result);
+          }
+        },
+        LOG_ERROR);
+  }
+
+  // Load a stored result into the validators, so it is also what a 304 answers with
+  @Nullable
+  @SuppressWarnings("unchecked")
+  private <T> T storedValue(@NonNull final String url, @NonNull final ObjectReader reader) {
+    CatalogStore store = catalogStore;
+    if (store == null) {
+      return null;
+    }
+    ConditionalRequest.Validator validator = validators.get(url);
+    if (validator != null) {
+      return (T) validator.getValue();
+    }
+    CatalogStore.Entry entry = store.get(url);
+    if (entry == null) {
+      return null;
+    }
+    try {
+      T value = reader.readValue(entry.getData());
+      validator =
+          new ConditionalRequest.Validator(entry.getETag(), value, entry.getData());
+      ConditionalRequest.Validator existing = validators.putIfAbsent(url, validator);
+      if (existing != null) {
+        return (T) existing.getValue();
+      }
+      return value;
+    } catch (IOException e) {
+      Log.e(TAG, "Ignoring unreadable stored " + url + ": " + e);
+      return null;
+    }
+  }
+
+  // Save the validated result for a URL to the store on the scheduler thread
+  private void storeValue(@NonNull final String url) {
+    CatalogStore store = catalogStore;
+    ConditionalRequest.Validator validator = validators.get(url);
+    if (store == null || validator == null) {
+      return;
+    }
+    SCHEDULER.execute(
+        () -> {
+          try {
+            store.put(url, validator.getETag(), validator.getData());
+          } catch (IOException e) {
+            Log.e(TAG, "Failed to store " + url + ": " + e);
+          }
+        });
+  }
+
+  /*
+   * Issue or join a shared GET and expose it as a future. A caller that cancels the future, or
+   * completes it some other way such as with a timeout, stops waiting on the request, and the
+   * request itself is cancelled once nobody is waiting on it.
+   */
+  private <T> CompletableFuture<T> getAsync(
+      @NonNull final String name,
+      @NonNull final String url,
+      final long ttl,
+      @NonNull final Request.Priority priority,
+      @NonNull final SingleFlight<T> flights,
+      @NonNull final ObjectReader reader,
+      @NonNull final UnaryOperator<T> copy) {
+    CompletableFuture<T> future = new CompletableFuture<>();
+    Executor executor = asyncExecutor;
+    Response.Listener<T> listener =
+        result -> executor.execute(() -> future.complete(copy.apply(result)));
+    getShared(
+        name,
+        url,
+        ttl,
+        priority,
+        flights,
+        reader,
+        listener,
+        error -> executor.execute(() -> future.completeExceptionally(error)));
+    future.whenComplete(
+        (result, error) -> {
+          if (error != null) {
+            flights.leave(url, listener);
+          }
+        });
+    return future;
   }
 
   /**
@@ -176,24 +545,52 @@ public final class Client {
       @NonNull final Summary summary,
       @NonNull final Rating rating,
       @NonNull final CourseClientCallbacks callbacks) {
-    String url =
-        (CourseableApplication.SERVER_URL
-                + "rating/"
-                + summary.getYear()
-                + "/"
-                + summary.getSemester()
-                + "/"
-                + summary.getDepartment()
-                + "/"
-                + summary.getNumber())
-            + "?client="
-            + rating.getId();
+    sendRating(summary, rating, posted -> callbacks.yourRating(summary, posted), LOG_ERROR);
+  }
+
+  /**
+   * Post rating for a given summary asynchronously.
+   *
+   * <p>Cancelling the future cancels the request if it has not been sent yet, but a rating that
+   * has already reached the server stays posted.
+   *
+   * @param summary of the course
+   * @param rating to post
+   * @return a future completing with the posted rating, or with the request's error
+   */
+  public CompletableFuture<Rating> postRatingAsync(
+      @NonNull final Summary summary, @NonNull final Rating rating) {
+    CompletableFuture<Rating> future = new CompletableFuture<>();
+    Executor executor = asyncExecutor;
+    Request<?> request =
+        sendRating(
+            summary,
+            rating,
+            posted -> executor.execute(() -> future.complete(posted)),
+            error -> executor.execute(() -> future.completeExceptionally(error)));
+    future.whenComplete(
+        (result, error) -> {
+          if (error != null) {
+            request.cancel();
+          }
+        });
+    return future;
+  }
+
+  private Request<?> sendRating(
+      @NonNull final Summary summary,
+      @NonNull final Rating rating,
+      @NonNull final Response.Listener<Rating> listener,
+      @NonNull final Response.ErrorListener errorListener) {
     StringRequest ratingRequest =
         new StringRequest(
             Request.Method.POST,
-            url,
-            response -> callbacks.yourRating(summary, rating),
-            error -> Log.e(TAG, error.toString())) {
+            ratingUrl(summary, rating.getId()),
+            response -> {
+              invalidateRating(summary, rating.getId());
+              listener.onResponse(rating);
+            },
+            errorListener) {
           @Override
           public byte[] getBody() {
             String value = "";
@@ -205,7 +602,400 @@ public final class Client {
             return value.getBytes();
           }
         };
-    requestQueue.add(ratingRequest);
+    ratingRequest.setShouldCache(false);
+    invalidateRating(summary, rating.getId());
+    return enqueue("postRating", ratingRequest);
+  }
+
+  /**
+   * Set the executor that futures returned by the asynchronous methods complete on. Defaults to
+   * the common fork-join pool.
+   *
+   * @param executor the executor to complete futures on
+   */
+  public void setAsyncExecutor(@NonNull final Executor executor) {
+    asyncExecutor = executor;
+  }
+
+  /**
+   * Fail a future with a {@link TimeoutException} if it has not completed in time.
+   *
+   * <p>For futures returned by this client, timing out also stops waiting on the request.
+   *
+   * @param future the future to bound
+   * @param timeout how long to wait
+   * @param unit the unit of the timeout
+   * @param <T> type of the future's result
+   * @return the same future
+   */
+  public static <T> CompletableFuture<T> withTimeout(
+      @NonNull final CompletableFuture<T> future,
+      final long timeout,
+      @NonNull final TimeUnit unit) {
+    ScheduledFuture<?> timer =
+        SCHEDULER.schedule(
+            () -> future.completeExceptionally(new TimeoutException()), timeout, unit);
+    future.whenComplete((result, error) -> timer.cancel(false));
+    return future;
+  }
+
+  /**
+   * Queue a rating to be sent in the background.
+   *
+   * <p>A newer rating of the same course by the same client replaces one that is still queued, and
+   * queued ratings are sent together once none has been queued for a short while, so dragging
+   * across the rating bar sends one request rather than one per star. Until then, the queued
+   * rating is what {@link #getRating} returns. If a rating journal is set, queued ratings are kept
+   * in it until the server accepts or rejects them.
+   *
+   * @param summary of the course
+   * @param rating to post
+   * @throws IllegalArgumentException if the course is incomplete, the client ID is not a UUID, or
+   *     the rating is out of range
+   */
+  public void queueRating(@NonNull final Summary summary, @NonNull final Rating rating) {
+    CourseRating entry = new CourseRating(summary, rating);
+    if (!isSendable(entry)) {
+      throw new IllegalArgumentException("Rating the server would reject: " + rating.getId());
+    }
+    synchronized (pendingRatings) {
+      pendingRatings.put(pendingKey(summary, rating.getId()), entry);
+      scheduleFlush(RATING_DEBOUNCE);
+    }
+    saveJournal();
+  }
+
+  /**
+   * Send every queued rating now instead of waiting for the debounce window to pass. Call when the
+   * user leaves the screen the ratings were made on.
+   */
+  public void flushRatings() {
+    synchronized (pendingRatings) {
+      if (pendingFlush != null) {
+        pendingFlush.cancel(false);
+        pendingFlush = null;
+      }
+    }
+    postRatings(new CourseClientCallbacks() {});
+  }
+
+  /**
+   * Keep queued ratings in a journal file so they survive the process being killed before they
+   * are sent. Ratings already in the journal are queued again and sent shortly.
+   *
+   * <p>The journal is read in the background. Entries that cannot be read or sent are skipped,
+   * and ratings queued before it has been read replace its entries for the same course.
+   *
+   * @param journal the journal file
+   */
+  public void setRatingJournal(@NonNull final File journal) {
+    asyncExecutor.execute(() -> loadJournal(journal));
+  }
+
+  // Queue the usable ratings in a journal, then keep it up to date from now on
+  private void loadJournal(@NonNull final File journal) {
+    List<CourseRating> saved = new ArrayList<>();
+    if (journal.exists()) {
+      try {
+        JsonNode entries = objectMapper.readTree(journal);
+        if (entries == null || !entries.isArray()) {
+          throw new IOException("Not an array of ratings");
+        }
+        for (JsonNode node : entries) {
+          CourseRating entry = null;
+          try {
+            entry = objectMapper.treeToValue(node, CourseRating.class);
+          } catch (JsonProcessingException e) {
+            Log.w(TAG, "Skipping unreadable journal entry: " + e);
+          }
+          if (isSendable(entry)) {
+            saved.add(entry);
+          } else {
+            Log.w(TAG, "Skipping journal entry the server would reject: " + node);
+          }
+        }
+      } catch (IOException e) {
+        Log.e(TAG, "Discarding unreadable rating journal: " + e);
+      }
+    }
+    synchronized (pendingRatings) {
+      ratingJournal = journal;
+      for (CourseRating entry : saved) {
+        String key = pendingKey(entry.getCourse(), entry.getRating().getId());
+        if (!pendingRatings.containsKey(key)) {
+          pendingRatings.put(key, entry);
+        }
+      }
+      if (!pendingRatings.isEmpty()) {
+        scheduleFlush(RATING_DEBOUNCE);
+      }
+    }
+    saveJournal();
+  }
+
+  // Same checks as the server makes on batch entries, so malformed ratings are never queued
+  private static boolean isSendable(@Nullable final CourseRating entry) {
+    if (entry == null || entry.getCourse() == null || entry.getRating() == null) {
+      return false;
+    }
+    Summary course = entry.getCourse();
+    String id = entry.getRating().getId();
+    double rating = entry.getRating().getRating();
+    return course.getYear() != null
+        && course.getSemester() != null
+        && course.getDepartment() != null
+        && course.getNumber() != null
+        && id != null
+        && Router.ParamType.UUID.matches(id, 0, id.length())
+        && (rating == Rating.NOT_RATED || (rating >= 0 && rating <= AggregateRating.STARS));
+  }
+
+  /**
+   * Post every queued rating in a single request.
+   *
+   * <p>Each rating the server accepts is reported to {@link CourseClientCallbacks#yourRating}.
+   * Ratings it rejects, such as ones for courses no longer in the catalog, are dropped, so they
+   * cannot hold back the rest. Ratings stay queued until the server answers, and if the request
+   * fails they are sent again after a delay. Only one batch is in flight at a time: calls made
+   * while one is send the ratings queued meanwhile once it completes, so a newer rating never
+   * reaches the server ahead of an older one.
+   *
+   * @param callbacks to send out
+   */
+  public void postRatings(@NonNull final CourseClientCallbacks callbacks) {
+    Map<String, CourseRating> batch;
+    synchronized (pendingRatings) {
+      if (batchInFlight) {
+        batchWaiters.add(callbacks);
+        return;
+      }
+      if (pendingRatings.isEmpty()) {
+        return;
+      }
+      batch = new LinkedHashMap<>(pendingRatings);
+      batchInFlight = true;
+    }
+    byte[] body;
+    try {
+      body = objectMapper.writeValueAsBytes(batch.values());
+    } catch (JsonProcessingException e) {
+      Log.e(TAG, e.toString());
+      batchFinished(true);
+      return;
+    }
+    StringRequest batchRequest =
+        new StringRequest(
+            Request.Method.POST,
+            CourseableApplication.SERVER_URL + "ratings/batch",
+            response -> {
+              int[] results = batchResults(response, batch.size());
+              List<CourseRating> accepted = new ArrayList<>(batch.size());
+              int i = 0;
+              for (CourseRating entry : batch.values()) {
+                if (results == null || results[i] == HttpURLConnection.HTTP_OK) {
+                  accepted.add(entry);
+                } else {
+                  Log.w(TAG, "Dropping rating the server rejected with " + results[i]);
+                }
+                i++;
+              }
+              settle(batch);
+              for (CourseRating entry : accepted) {
+                callbacks.yourRating(entry.getCourse(), entry.getRating());
+              }
+              batchFinished(false);
+            },
+            error -> {
+              Log.e(TAG, error.toString());
+              if (error.networkResponse != null
+                  && error.networkResponse.statusCode >= HttpURLConnection.HTTP_BAD_REQUEST
+                  && error.networkResponse.statusCode < HttpURLConnection.HTTP_INTERNAL_ERROR) {
+                // The server refused the request itself, so sending it again cannot succeed
+                Log.w(TAG, "Dropping " + batch.size() + " ratings the server rejected");
+                settle(batch);
+                batchFinished(false);
+              } else {
+                batchFinished(true);
+              }
+            }) {
+          @Override
+          public String getBodyContentType() {
+            return "application/json; charset=utf-8";
+          }
+
+          @Override
+          public byte[] getBody() {
+            return body;
+          }
+        };
+    batchRequest.setShouldCache(false);
+    for (CourseRating entry : batch.values()) {
+      invalidateRating(entry.getCourse(), entry.getRating().getId());
+    }
+    enqueue("postRatings", batchRequest);
+  }
+
+  // Per-entry statuses from a batch response, or null to take every entry as accepted
+  @Nullable
+  private int[] batchResults(@NonNull final String response, final int size) {
+    try {
+      int[] results = objectMapper.readValue(response, int[].class);
+      if (results != null && results.length == size) {
+        return results;
+      }
+    } catch (JsonProcessingException e) {
+      Log.w(TAG, e.toString());
+    }
+    Log.w(TAG, "Batch response without a status for each rating: " + response);
+    return null;
+  }
+
+  /*
+   * Stop queueing ratings the server has answered for. Ratings queued while the batch was in flight
+   * replace the ones it sent and stay queued. Each cached rating is invalidated before its queued
+   * one is removed, under the same lock getRating checks the queue with, so no read in between can
+   * be answered with a copy from before the batch.
+   */
+  private void settle(@NonNull final Map<String, CourseRating> batch) {
+    synchronized (pendingRatings) {
+      for (Map.Entry<String, CourseRating> entry : batch.entrySet()) {
+        CourseRating sent = entry.getValue();
+        invalidateRating(sent.getCourse(), sent.getRating().getId());
+        if (pendingRatings.get(entry.getKey()) == sent) {
+          pendingRatings.remove(entry.getKey());
+        }
+      }
+    }
+    saveJournal();
+  }
+
+  /*
+   * Let the next batch go once one completes. After a failure that may pass, everything still
+   * queued is sent again after a delay. Otherwise the ratings queued meanwhile are sent now if
+   * anyone asked for them, with their callbacks.
+   */
+  private void batchFinished(final boolean retry) {
+    List<CourseClientCallbacks> waiting;
+    synchronized (pendingRatings) {
+      batchInFlight = false;
+      waiting = new ArrayList<>(batchWaiters);
+      batchWaiters.clear();
+      if (retry) {
+        if (pendingFlush == null) {
+          scheduleFlush(RATING_RETRY_DELAY);
+        }
+        return;
+      }
+    }
+    if (waiting.isEmpty()) {
+      return;
+    }
+    postRatings(
+        new CourseClientCallbacks() {
+          @Override
+          public void yourRating(final Summary summary, final Rating rating) {
+            for (CourseClientCallbacks callbacks : waiting) {
+              callbacks.yourRating(summary, rating);
+            }
+          }
+        });
+  }
+
+  // Replace any scheduled flush with one after the given delay. Called holding pendingRatings.
+  private void scheduleFlush(final long delay) {
+    if (pendingFlush != null) {
+      pendingFlush.cancel(false);
+    }
+    pendingFlush = SCHEDULER.schedule(this::flushRatings, delay, TimeUnit.MILLISECONDS);
+  }
+
+  @Nullable
+  private Rating pendingRating(@NonNull final Summary summary, @NonNull final String clientID) {
+    synchronized (pendingRatings) {
+      CourseRating pending = pendingRatings.get(pendingKey(summary, clientID));
+      if (pending == null) {
+        return null;
+      }
+      return pending.getRating();
+    }
+  }
+
+  /*
+   * Write the queued ratings to the journal, if there is one, on the scheduler thread. Each write
+   * takes a fresh snapshot, so a burst of changes ends with the latest state on disk. The journal
+   * is replaced by renaming a complete temporary file over it, so a crash leaves either the old or
+   * the new contents.
+   */
+  private void saveJournal() {
+    SCHEDULER.execute(
+        () -> {
+          File journal;
+          CourseRating[] snapshot;
+          synchronized (pendingRatings) {
+            journal = ratingJournal;
+            snapshot = pendingRatings.values().toArray(new CourseRating[0]);
+          }
+          if (journal == null) {
+            return;
+          }
+          File temporary = new File(journal.getPath() + ".tmp");
+          try {
+            File parent = journal.getAbsoluteFile().getParentFile();
+            if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+              throw new IOException("Cannot create " + parent);
+            }
+            byte[] contents = objectMapper.writeValueAsBytes(snapshot);
+            try (FileOutputStream output = new FileOutputStream(temporary)) {
+              output.write(contents);
+              output.getFD().sync();
+            }
+            if (!temporary.renameTo(journal)) {
+              throw new IOException("Cannot replace " + journal);
+            }
+          } catch (IOException e) {
+            Log.e(TAG, "Failed to save rating journal: " + e);
+          }
+        });
+  }
+
+  /*
+   * Our own write makes any cached copy of the rating and the course aggregate stale. Called both
+   * when the write is sent and when it succeeds, so nothing fetched in between survives it.
+   */
+  private void invalidateRating(@NonNull final Summary summary, @NonNull final String clientID) {
+    cache.remove(ratingUrl(summary, clientID));
+    cache.remove(aggregateUrl(summary));
+    ratingFlights.forget(ratingUrl(summary, clientID));
+    aggregateFlights.forget(aggregateUrl(summary));
+  }
+
+  private static String summaryUrl(@NonNull final String year, @NonNull final String semester) {
+    return CourseableApplication.SERVER_URL + "summary/" + year + "/" + semester;
+  }
+
+  // Courses the user opens are requested again and again, so their paths are built only once
+  private static String coursePath(@NonNull final Summary summary) {
+    return CourseKey.of(summary).intern().getPath();
+  }
+
+  private static String courseUrl(@NonNull final Summary summary) {
+    return CourseableApplication.SERVER_URL + "course/" + coursePath(summary);
+  }
+
+  private static String ratingUrl(@NonNull final Summary summary, @NonNull final String clientID) {
+    return CourseableApplication.SERVER_URL
+        + "rating/"
+        + coursePath(summary)
+        + "?client="
+        + clientID;
+  }
+
+  private static String aggregateUrl(@NonNull final Summary summary) {
+    return CourseableApplication.SERVER_URL + "aggregate/" + coursePath(summary);
+  }
+
+  private static String pendingKey(@NonNull final Summary summary, @NonNull final String clientID) {
+    return coursePath(summary) + "?" + clientID;
   }
 
   private static Client instance;
@@ -216,35 +1006,114 @@ public final class Client {
    * @return the course API client
    */
   public static Client start() {
+    return start(null);
+  }
+
+  /**
+   * Retrieve the course API client. Creates one if it does not already exist, caching responses on
+   * disk in the given directory.
+   *
+   * @param cacheDirectory directory for the disk response cache, or null to cache only in memory
+   * @return the course API client
+   */
+  public static Client start(@Nullable final File cacheDirectory) {
+    return start(cacheDirectory, null);
+  }
+
+  /**
+   * Retrieve the course API client. Creates one if it does not already exist, caching responses on
+   * disk in the given directory and sending requests through the given HTTP stack.
+   *
+   * @param cacheDirectory directory for the disk response cache, or null to cache only in memory
+   * @param httpStack the HTTP stack to send requests with, such as an {@link OkHttpStack}, or null
+   *     to use the platform's HttpURLConnection
+   * @return the course API client
+   */
+  public static Client start(
+      @Nullable final File cacheDirectory, @Nullable final BaseHttpStack httpStack) {
     if (instance == null) {
-      instance = new Client();
+      instance = new Client(cacheDirectory, httpStack);
     }
     return instance;
   }
 
-  private static final int MAX_STARTUP_RETRIES = 8;
   private static final int THREAD_POOL_SIZE = 4;
 
+  // Catalog data changes rarely, and once stale it is revalidated with its ETag
+  private static final long CATALOG_TTL = TimeUnit.DAYS.toMillis(1);
+  // Ratings can change from other clients, and our own writes invalidate them right away
+  private static final long RATING_TTL = TimeUnit.MINUTES.toMillis(1);
+  private static final int MEMORY_CACHE_BYTES = 1024 * 1024;
+  private static final int DISK_CACHE_BYTES = 10 * 1024 * 1024;
+  // Response bytes whose parsed results are kept for revalidation
+  private static final int VALIDATOR_BYTES = 1024 * 1024;
+  private static final long CATALOG_STORE_BYTES = 4 * 1024 * 1024;
+
   private final ObjectMapper objectMapper = new ObjectMapper();
   private final RequestQueue requestQueue;
+  // Thread callbacks run on, for responses from the queue and from the catalog store alike
+  private final Executor delivery = Executors.newSingleThreadExecutor();
+  private final TieredCache cache;
+  private final ClientMetrics metrics = new ClientMetrics();
+  // ETags and parsed results of recent responses, used to revalidate instead of re-downloading
+  private final Validators validators = new Validators(VALIDATOR_BYTES);
+  // Readers for each response type, prepared once the mapper is configured
+  private final ObjectReader summaryReader;
+  private final ObjectReader courseReader;
+  private final ObjectReader ratingReader;
+  private final ObjectReader aggregateReader;
+  private volatile Executor asyncExecutor = ForkJoinPool.commonPool();
+  private volatile CatalogStore catalogStore;
+  // Requests in flight, so identical concurrent requests share one response
+  private final SingleFlight<Summary[]> summaryFlights = new SingleFlight<>();
+  private final SingleFlight<Course> courseFlights = new SingleFlight<>();
+  private final SingleFlight<Rating> ratingFlights = new SingleFlight<>();
+  private final SingleFlight<AggregateRating> aggregateFlights = new SingleFlight<>();
+  // Ratings not yet accepted by the server, keyed by course and client
+  private final Map<String, CourseRating> pendingRatings = new LinkedHashMap<>();
+  // Guarded by pendingRatings
+  private ScheduledFuture<?> pendingFlush;
+  private File ratingJournal;
+  private boolean batchInFlight;
+  // Callbacks of postRatings calls made while a batch was in flight
+  private final List<CourseClientCallbacks> batchWaiters = new ArrayList<>();
+  // Startup progress: requests added before the queue starts wait until it does
+  private final long createdAt = System.nanoTime();
+  private volatile long readyAt;
+  private volatile boolean ready;
+  private final AtomicInteger queuedBeforeReady = new AtomicInteger();
 
   /*
    * Set up our client, create the Volley queue, and establish a backend connection.
    */
-  private Client() {
+  private Client(@Nullable final File cacheDirectory, @Nullable final BaseHttpStack httpStack) {
     // Configure the Volley queue used for our network requests
-    Cache cache = new NoCache();
-    Network network = new BasicNetwork(new HurlStack());
+    Cache disk = null;
+    if (cacheDirectory != null) {
+      disk = new DiskBasedCache(cacheDirectory, DISK_CACHE_BYTES);
+    }
+    cache = new TieredCache(MEMORY_CACHE_BYTES, disk);
+    metrics.watch(cache);
+    BaseHttpStack stack = httpStack;
+    if (stack == null) {
+      stack = new HurlStack();
+    }
+    Network network = metrics.wrap(new BasicNetwork(stack));
     HttpURLConnection.setFollowRedirects(true);
     requestQueue =
         new RequestQueue(
             cache,
             network,
             THREAD_POOL_SIZE,
-            new ExecutorDelivery(Executors.newSingleThreadExecutor()));
+            new ExecutorDelivery(delivery));
+    requestQueue.addRequestFinishedListener(metrics::finished);
 
     // Configure the Jackson object mapper to ignore unknown properties
     objectMapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+    summaryReader = objectMapper.readerFor(Summary[].class);
+    courseReader = objectMapper.readerFor(Course.class);
+    ratingReader = objectMapper.readerFor(Rating.class);
+    aggregateReader = objectMapper.readerFor(AggregateRating.class);
 
     // Make sure the backend URL is valid
     URL serverURL;
@@ -256,28 +1125,108 @@ public final class Client {
     }
 
     // Start a background thread to establish the server connection
-    new Thread(
-            () -> {
-              for (int i = 0; i < MAX_STARTUP_RETRIES; i++) {
-                try {
-                  // Issue a HEAD request for the root URL
-                  HttpURLConnection connection = (HttpURLConnection) serverURL.openConnection();
-                  connection.setRequestMethod("HEAD");
-                  connection.connect();
-                  connection.disconnect();
-                  // Once this succeeds, we can start the Volley queue
-                  requestQueue.start();
-                  break;
-                } catch (Exception e) {
-                  Log.e(TAG, e.toString());
-                }
-                // If the connection fails, delay and then retry
-                try {
-                  Thread.sleep(INITIAL_CONNECTION_RETRY_DELAY);
-                } catch (InterruptedException ignored) {
-                }
-              }
-            })
-        .start();
+    new Thread(() -> connect(serverURL)).start();
+  }
+
+  /*
+   * Probe the server until it answers, then start the Volley queue. Between probes we wait on the
+   * in-process server's readiness signal, which ends the wait early when it is running here.
+   */
+  private void connect(@NonNull final URL serverURL) {
+    long deadline = createdAt + TimeUnit.MILLISECONDS.toNanos(STARTUP_TIMEOUT);
+    long delay = INITIAL_CONNECTION_RETRY_DELAY;
+    boolean signalled = false;
+    while (!probe(serverURL)) {
+      if (System.nanoTime() - deadline > 0) {
+        Log.e(TAG, "Server did not respond within " + STARTUP_TIMEOUT + " ms");
+        return;
+      }
+      // Wait between half and all of the current delay so clients do not retry in lockstep
+      long wait = delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+      delay = Math.min(delay * 2, MAX_CONNECTION_RETRY_DELAY);
+      try {
+        if (signalled) {
+          Thread.sleep(wait);
+        } else {
+          signalled = Server.awaitReady(wait, TimeUnit.MILLISECONDS);
+        }
+      } catch (InterruptedException e) {
+        return;
+      }
+    }
+    readyAt = System.nanoTime();
+    ready = true;
+    requestQueue.start();
+    Log.i(
+        TAG,
+        "Ready after "
+            + getTimeToReady()
+            + " ms with "
+            + queuedBeforeReady.get()
+            + " requests queued");
+  }
+
+  // Issue a HEAD request for the root URL
+  private static boolean probe(@NonNull final URL serverURL) {
+    try {
+      HttpURLConnection connection = (HttpURLConnection) serverURL.openConnection();
+      connection.setRequestMethod("HEAD");
+      connection.connect();
+      connection.getResponseCode();
+      connection.disconnect();
+      return true;
+    } catch (IOException e) {
+      Log.d(TAG, e.toString());
+      return false;
+    }
+  }
+
+  // Add a request to the queue, recording it under the client method that issued it and counting
+  // the ones that will wait for startup to finish
+  private <T> Request<T> enqueue(@NonNull final String name, @NonNull final Request<T> request) {
+    if (!ready) {
+      queuedBeforeReady.incrementAndGet();
+    }
+    metrics.enqueued(name, request);
+    return requestQueue.add(request);
+  }
+
+  /**
+   * Get the client's request metrics: latencies, cache hits, and errors for each client method.
+   *
+   * @return the metrics, updated as requests are sent
+   */
+  public ClientMetrics getMetrics() {
+    return metrics;
+  }
+
+  /**
+   * Check whether the client has reached the server and started sending requests.
+   *
+   * @return true once the client is ready
+   */
+  public boolean isReady() {
+    return ready;
+  }
+
+  /**
+   * Get how long the client took to reach the server after it was created.
+   *
+   * @return the time to ready in milliseconds, or -1 if the client is not ready yet
+   */
+  public long getTimeToReady() {
+    if (!ready) {
+      return -1;
+    }
+    return TimeUnit.NANOSECONDS.toMillis(readyAt - createdAt);
+  }
+
+  /**
+   * Get the number of requests that were added before the client was ready and had to wait.
+   *
+   * @return the queued-before-ready count
+   */
+  public int getQueuedBeforeReady() {
+    return queuedBeforeReady.get();
   }
 }
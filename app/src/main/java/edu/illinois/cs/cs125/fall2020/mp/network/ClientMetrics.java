@@ -0,0 +1,454 @@
+package edu.illinois.cs.cs125.fall2020.mp.network;
+
+import androidx.annotation.NonNull;
+import com.android.volley.Network;
+import com.android.volley.NetworkResponse;
+import com.android.volley.Request;
+import com.android.volley.VolleyError;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Timings and counts for the requests sent by a {@link Client}.
+ *
+ * <p>Requests are recorded under the client method that issued them, such as getCourse. Each
+ * method has latency histograms for four stages:
+ *
+ * <ul>
+ *   <li>the wait before a request reaches the network
+ *   <li>the time spent on the network
+ *   <li>the time taken to parse the response
+ *   <li>the total time until the request finishes
+ * </ul>
+ *
+ * <p>Each method also counts cache hits and misses, and errors by HTTP status or failure type. The
+ * numbers of unfinished requests and of requests not yet on the network are kept across all
+ * methods, as are the lookups answered by each tier of the response cache.
+ *
+ * <p>Recording a request costs a few atomic updates, so the metrics are always collected.
+ */
+public final class ClientMetrics {
+  private static final double MICROS_PER_MILLI = 1000.0;
+  private static final double MEDIAN = 0.5;
+  private static final double P90 = 0.9;
+  private static final double P99 = 0.99;
+
+  /**
+   * Latency histogram with buckets that double in width from one microsecond.
+   *
+   * <p>Percentiles are reported as the upper edge of the bucket they fall in, so they overstate
+   * the true value by at most a factor of two.
+   */
+  public static final class Histogram {
+    // Bucket 0 holds 0 microseconds and bucket i holds [2^(i-1), 2^i) microseconds; the last one
+    // also holds anything longer
+    private static final int BUCKETS = 32;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong totalMicros = new AtomicLong();
+    private final AtomicLong maxMicros = new AtomicLong();
+
+    private void record(final long nanos) {
+      long micros = Math.max(0, TimeUnit.NANOSECONDS.toMicros(nanos));
+      int bucket = Math.min(BUCKETS - 1, Long.SIZE - Long.numberOfLeadingZeros(micros));
+      buckets.incrementAndGet(bucket);
+      count.incrementAndGet();
+      totalMicros.addAndGet(micros);
+      long max = maxMicros.get();
+      while (micros > max && !maxMicros.compareAndSet(max, micros)) {
+        max = maxMicros.get();
+      }
+    }
+
+    /**
+     * Get the number of recorded latencies.
+     *
+     * @return the count
+     */
+    public long getCount() {
+      return count.get();
+    }
+
+    /**
+     * Get the mean recorded latency.
+     *
+     * @return the mean in milliseconds, or 0 if nothing was recorded
+     */
+    public double getMean() {
+      long recorded = count.get();
+      if (recorded == 0) {
+        return 0;
+      }
+      return totalMicros.get() / MICROS_PER_MILLI / recorded;
+    }
+
+    /**
+     * Get the longest recorded latency.
+     *
+     * @return the maximum in milliseconds
+     */
+    public double getMax() {
+      return maxMicros.get() / MICROS_PER_MILLI;
+    }
+
+    /**
+     * Get a percentile of the recorded latencies.
+     *
+     * @param fraction the fraction of latencies at or below the result, such as 0.99 for p99
+     * @return the percentile in milliseconds, or 0 if nothing was recorded
+     */
+    public double getPercentile(final double fraction) {
+      long[] snapshot = new long[BUCKETS];
+      long recorded = 0;
+      for (int i = 0; i < BUCKETS; i++) {
+        snapshot[i] = buckets.get(i);
+        recorded += snapshot[i];
+      }
+      if (recorded == 0) {
+        return 0;
+      }
+      long rank = Math.max(1, (long) Math.ceil(fraction * recorded));
+      long seen = 0;
+      for (int i = 0; i < BUCKETS; i++) {
+        seen += snapshot[i];
+        if (seen >= rank) {
+          return Math.min(1L << i, maxMicros.get()) / MICROS_PER_MILLI;
+        }
+      }
+      return getMax();
+    }
+
+    private String describe() {
+      return String.format(
+          Locale.US,
+          "n=%d mean=%.2f p50=%.2f p90=%.2f p99=%.2f max=%.2f ms",
+          getCount(),
+          getMean(),
+          getPercentile(MEDIAN),
+          getPercentile(P90),
+          getPercentile(P99),
+          getMax());
+    }
+  }
+
+  /** Metrics for the requests issued by one client method. */
+  public static final class Endpoint {
+    private final Histogram queueWait = new Histogram();
+    private final Histogram network = new Histogram();
+    private final Histogram parse = new Histogram();
+    private final Histogram total = new Histogram();
+    private final AtomicLong cacheHits = new AtomicLong();
+    private final AtomicLong cacheMisses = new AtomicLong();
+    private final Map<String, AtomicLong> errors = new ConcurrentHashMap<>();
+
+    /**
+     * Get the time requests waited before reaching the network, including cache lookups and any
+     * wait for the client to become ready.
+     *
+     * @return the queue wait histogram
+     */
+    public Histogram getQueueWait() {
+      return queueWait;
+    }
+
+    /**
+     * Get the time requests spent on the network, including Volley's retries.
+     *
+     * @return the network histogram
+     */
+    public Histogram getNetwork() {
+      return network;
+    }
+
+    /**
+     * Get the time taken to parse responses, whether from the network or the cache.
+     *
+     * @return the parse histogram
+     */
+    public Histogram getParse() {
+      return parse;
+    }
+
+    /**
+     * Get the time from adding requests to the queue until they finished. Cancelled requests are
+     * not included.
+     *
+     * @return the total latency histogram
+     */
+    public Histogram getTotal() {
+      return total;
+    }
+
+    /**
+     * Get the number of requests answered from the cache without reaching the network.
+     *
+     * @return the cache hit count
+     */
+    public long getCacheHits() {
+      return cacheHits.get();
+    }
+
+    /**
+     * Get the number of cacheable requests that had to reach the network.
+     *
+     * @return the cache miss count
+     */
+    public long getCacheMisses() {
+      return cacheMisses.get();
+    }
+
+    /**
+     * Get error counts keyed by HTTP status code, or by the failure type for errors without a
+     * response, such as TimeoutError, or "parse" for responses that could not be parsed.
+     *
+     * @return a snapshot of the error counts
+     */
+    public Map<String, Long> getErrors() {
+      Map<String, Long> snapshot = new TreeMap<>();
+      for (Map.Entry<String, AtomicLong> error : errors.entrySet()) {
+        snapshot.put(error.getKey(), error.getValue().get());
+      }
+      return snapshot;
+    }
+
+    private void error(@NonNull final String kind) {
+      AtomicLong counter = errors.get(kind);
+      if (counter == null) {
+        counter = errors.computeIfAbsent(kind, key -> new AtomicLong());
+      }
+      counter.incrementAndGet();
+    }
+  }
+
+  /** Progress of one request through the queue. */
+  private static final class Trace {
+    private final Endpoint endpoint;
+    private final long enqueuedAt;
+    private volatile boolean reachedNetwork;
+
+    private Trace(@NonNull final Endpoint setEndpoint, final long setEnqueuedAt) {
+      endpoint = setEndpoint;
+      enqueuedAt = setEnqueuedAt;
+    }
+  }
+
+  private final Map<String, Endpoint> endpoints = new ConcurrentHashMap<>();
+  private final Map<Request<?>, Trace> traces = new ConcurrentHashMap<>();
+  private final AtomicInteger inFlight = new AtomicInteger();
+  private final AtomicInteger queueDepth = new AtomicInteger();
+  private volatile TieredCache cache;
+
+  /**
+   * Report the lookups of a response cache along with the request metrics.
+   *
+   * @param tieredCache the cache the client's requests are answered from
+   */
+  void watch(@NonNull final TieredCache tieredCache) {
+    cache = tieredCache;
+  }
+
+  /**
+   * Record that a request was added to the queue.
+   *
+   * @param name the client method that issued the request
+   * @param request the request
+   */
+  void enqueued(@NonNull final String name, @NonNull final Request<?> request) {
+    Endpoint endpoint = endpoints.get(name);
+    if (endpoint == null) {
+      endpoint = endpoints.computeIfAbsent(name, key -> new Endpoint());
+    }
+    traces.put(request, new Trace(endpoint, System.nanoTime()));
+    inFlight.incrementAndGet();
+    queueDepth.incrementAndGet();
+  }
+
+  /**
+   * Wrap a network so the requests it performs are timed and their errors counted.
+   *
+   * @param network the network that performs requests
+   * @return a network recording into these metrics
+   */
+  Network wrap(@NonNull final Network network) {
+    return request -> {
+      Trace trace = traces.get(request);
+      if (trace == null) {
+        return network.performRequest(request);
+      }
+      long start = System.nanoTime();
+      if (!trace.reachedNetwork) {
+        trace.reachedNetwork = true;
+        queueDepth.decrementAndGet();
+        trace.endpoint.queueWait.record(start - trace.enqueuedAt);
+      }
+      try {
+        return network.performRequest(request);
+      } catch (VolleyError e) {
+        NetworkResponse response = e.networkResponse;
+        if (response != null) {
+          trace.endpoint.error(Integer.toString(response.statusCode));
+        } else {
+          trace.endpoint.error(e.getClass().getSimpleName());
+        }
+        throw e;
+      } finally {
+        trace.endpoint.network.record(System.nanoTime() - start);
+      }
+    };
+  }
+
+  /**
+   * Record the time taken to parse a response.
+   *
+   * @param request the request whose response was parsed
+   * @param nanos the parse time in nanoseconds
+   * @param success whether the response could be parsed
+   */
+  void parsed(@NonNull final Request<?> request, final long nanos, final boolean success) {
+    Trace trace = traces.get(request);
+    if (trace == null) {
+      return;
+    }
+    trace.endpoint.parse.record(nanos);
+    if (!success) {
+      trace.endpoint.error("parse");
+    }
+  }
+
+  /**
+   * Record that a request finished, whether it succeeded, failed, or was cancelled.
+   *
+   * @param request the request
+   */
+  void finished(@NonNull final Request<?> request) {
+    Trace trace = traces.remove(request);
+    if (trace == null) {
+      return;
+    }
+    inFlight.decrementAndGet();
+    if (!trace.reachedNetwork) {
+      queueDepth.decrementAndGet();
+    }
+    if (request.isCanceled()) {
+      return;
+    }
+    if (request.shouldCache()) {
+      if (trace.reachedNetwork) {
+        trace.endpoint.cacheMisses.incrementAndGet();
+      } else {
+        trace.endpoint.cacheHits.incrementAndGet();
+      }
+    }
+    trace.endpoint.total.record(System.nanoTime() - trace.enqueuedAt);
+  }
+
+  /**
+   * Get the number of requests added to the queue that have not finished yet.
+   *
+   * @return the in-flight count
+   */
+  public int getInFlight() {
+    return inFlight.get();
+  }
+
+  /**
+   * Get the number of unfinished requests that have not reached the network yet.
+   *
+   * @return the queue depth
+   */
+  public int getQueueDepth() {
+    return queueDepth.get();
+  }
+
+  /**
+   * Get the number of response cache lookups answered from memory.
+   *
+   * @return the memory hit count, or 0 if no cache is watched
+   */
+  public long getMemoryHits() {
+    TieredCache current = cache;
+    if (current == null) {
+      return 0;
+    }
+    return current.getMemoryHits();
+  }
+
+  /**
+   * Get the number of response cache lookups answered from disk.
+   *
+   * @return the disk hit count, or 0 if no cache is watched
+   */
+  public long getDiskHits() {
+    TieredCache current = cache;
+    if (current == null) {
+      return 0;
+    }
+    return current.getDiskHits();
+  }
+
+  /**
+   * Get the number of response cache lookups that found nothing in either tier.
+   *
+   * @return the lookup miss count, or 0 if no cache is watched
+   */
+  public long getLookupMisses() {
+    TieredCache current = cache;
+    if (current == null) {
+      return 0;
+    }
+    return current.getMisses();
+  }
+
+  /**
+   * Get the metrics of every client method that has issued a request.
+   *
+   * @return the metrics keyed by client method name
+   */
+  public Map<String, Endpoint> getEndpoints() {
+    return new TreeMap<>(endpoints);
+  }
+
+  /**
+   * Describe all metrics as text, one client method at a time.
+   *
+   * @return the metrics as text
+   */
+  public String dump() {
+    StringBuilder text = new StringBuilder();
+    text.append("in flight ")
+        .append(getInFlight())
+        .append(", queue depth ")
+        .append(getQueueDepth())
+        .append('\n');
+    text.append("response cache: memory hits ")
+        .append(getMemoryHits())
+        .append(", disk hits ")
+        .append(getDiskHits())
+        .append(", misses ")
+        .append(getLookupMisses())
+        .append('\n');
+    for (Map.Entry<String, Endpoint> entry : getEndpoints().entrySet()) {
+      Endpoint endpoint = entry.getValue();
+      text.append(entry.getKey())
+          .append(": cache hits ")
+          .append(endpoint.getCacheHits())
+          .append(", misses ")
+          .append(endpoint.getCacheMisses())
+          .append(", errors ")
+          .append(endpoint.getErrors())
+          .append('\n');
+      text.append("  queue wait ").append(endpoint.queueWait.describe()).append('\n');
+      text.append("  network    ").append(endpoint.network.describe()).append('\n');
+      text.append("  parse      ").append(endpoint.parse.describe()).append('\n');
+      text.append("  total      ").append(endpoint.total.describe()).append('\n');
+    }
+    return text.toString();
+  }
+}
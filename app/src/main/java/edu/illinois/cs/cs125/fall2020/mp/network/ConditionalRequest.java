@@ -0,0 +1,193 @@
+package edu.illinois.cs.cs125.fall2020.mp.network;
+
+import androidx.annotation.NonNull;
+import com.android.volley.Cache;
+import com.android.volley.NetworkResponse;
+import com.android.volley.ParseError;
+import com.android.volley.Request;
+import com.android.volley.Response;
+import com.android.volley.toolbox.HttpHeaderParser;
+import com.fasterxml.jackson.databind.ObjectReader;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * GET request that revalidates a previously parsed response using its ETag.
+ *
+ * <p>When the server has handed us an ETag for a URL, the next request for that URL sends it as
+ * If-None-Match. A 304 reply is answered from the stored result without touching the body or the
+ * parser; a 200 reply is parsed and its result stored alongside the new ETag.
+ *
+ * <p>Responses are also stored in the request queue's cache, fresh for a time-to-live chosen per
+ * request. Fresh cache hits never reach the network, and a hit whose ETag matches the stored result
+ * is not parsed again either.
+ *
+ * <p>Bodies are deserialized straight from the response bytes by a reader prepared once per
+ * response type, on the Volley network thread that received them, so listeners get ready objects
+ * without an intermediate String.
+ *
+ * @param <T> type of the parsed response
+ */
+final class ConditionalRequest<T> extends Request<T> {
+  /** Last validated response for a URL. */
+  static final class Validator {
+    private final String etag;
+    private final Object value;
+    private final byte[] data;
+
+    /**
+     * Create a validator.
+     *
+     * @param setETag the response's ETag
+     * @param setValue the parsed response
+     * @param setData the body the response was parsed from
+     */
+    Validator(
+        @NonNull final String setETag,
+        @NonNull final Object setValue,
+        @NonNull final byte[] setData) {
+      etag = setETag;
+      value = setValue;
+      data = setData;
+    }
+
+    /**
+     * Get the response's ETag.
+     *
+     * @return the quoted ETag
+     */
+    String getETag() {
+      return etag;
+    }
+
+    /**
+     * Get the parsed response.
+     *
+     * @return the parsed response
+     */
+    Object getValue() {
+      return value;
+    }
+
+    /**
+     * Get the body the response was parsed from, exactly as the server sent it.
+     *
+     * @return the response body
+     */
+    byte[] getData() {
+      return data;
+    }
+
+    /**
+     * Get the size of the body the response was parsed from.
+     *
+     * @return the size in bytes
+     */
+    int getSize() {
+      return data.length;
+    }
+  }
+
+  private final Validators validators;
+  private final long ttl;
+  private final Priority priority;
+  private final ObjectReader reader;
+  private final ClientMetrics metrics;
+  private final Response.Listener<T> listener;
+
+  /**
+   * Create a conditional GET request.
+   *
+   * @param url the URL to retrieve
+   * @param setValidators validators shared by all conditional requests of a client
+   * @param setTtl how long in milliseconds a response may be served from the cache
+   * @param setPriority the priority Volley dispatches this request with
+   * @param setReader reader for response bodies, bound to the response type
+   * @param setMetrics metrics that parse times are recorded in
+   * @param setListener listener receiving parsed responses
+   * @param errorListener listener receiving errors
+   */
+  ConditionalRequest(
+      @NonNull final String url,
+      @NonNull final Validators setValidators,
+      final long setTtl,
+      @NonNull final Priority setPriority,
+      @NonNull final ObjectReader setReader,
+      @NonNull final ClientMetrics setMetrics,
+      @NonNull final Response.Listener<T> setListener,
+      @NonNull final Response.ErrorListener errorListener) {
+    super(Method.GET, url, errorListener);
+    validators = setValidators;
+    ttl = setTtl;
+    priority = setPriority;
+    reader = setReader;
+    metrics = setMetrics;
+    listener = setListener;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public Priority getPriority() {
+    return priority;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public Map<String, String> getHeaders() {
+    Validator validator = validators.get(getUrl());
+    if (validator == null) {
+      return Collections.emptyMap();
+    }
+    Map<String, String> headers = new HashMap<>();
+    headers.put("If-None-Match", validator.etag);
+    return headers;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  protected Response<T> parseNetworkResponse(final NetworkResponse response) {
+    long start = System.nanoTime();
+    Response<T> result = parse(response);
+    metrics.parsed(this, System.nanoTime() - start, result.isSuccess());
+    return result;
+  }
+
+  @SuppressWarnings("unchecked")
+  private Response<T> parse(@NonNull final NetworkResponse response) {
+    Cache.Entry cacheEntry = HttpHeaderParser.parseCacheHeaders(response);
+    if (cacheEntry != null) {
+      cacheEntry.softTtl = System.currentTimeMillis() + ttl;
+      cacheEntry.ttl = cacheEntry.softTtl;
+    }
+    Validator validator = validators.get(getUrl());
+    String etag = response.headers.get("ETag");
+    if (validator != null
+        && (response.statusCode == HttpURLConnection.HTTP_NOT_MODIFIED
+            || response.notModified
+            || validator.etag.equals(etag))) {
+      return Response.success((T) validator.value, cacheEntry);
+    }
+    if (response.data == null || response.data.length == 0) {
+      // A 304 we have nothing stored for
+      return Response.error(new ParseError(response));
+    }
+    try {
+      T value = reader.readValue(response.data);
+      if (etag != null && value != null) {
+        validators.put(getUrl(), new Validator(etag, value, response.data));
+      }
+      return Response.success(value, cacheEntry);
+    } catch (IOException e) {
+      return Response.error(new ParseError(e));
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  protected void deliverResponse(final T response) {
+    listener.onResponse(response);
+  }
+}
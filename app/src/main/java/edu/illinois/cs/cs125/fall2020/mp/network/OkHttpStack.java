@@ -0,0 +1,187 @@
+package edu.illinois.cs.cs125.fall2020.mp.network;
+
+import androidx.annotation.NonNull;
+import com.android.volley.AuthFailureError;
+import com.android.volley.Header;
+import com.android.volley.Request;
+import com.android.volley.toolbox.BaseHttpStack;
+import com.android.volley.toolbox.HttpResponse;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import okhttp3.ConnectionPool;
+import okhttp3.Headers;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+/**
+ * Volley HTTP stack backed by OkHttp.
+ *
+ * <p>Connections are pooled and kept alive between requests, so most requests to a host reuse an
+ * open connection instead of setting up a new one. OkHttp asks for gzip and decompresses responses
+ * itself whenever a request does not set its own Accept-Encoding.
+ *
+ * <p>Each host has a limit on concurrent requests. Requests beyond it wait until an earlier
+ * response has been read and its connection goes back to the pool, rather than opening more
+ * connections. Bodies are read in full before a response is returned, as Volley would read them
+ * anyway, so a caller that never reads or closes a body cannot hold on to its host's permit.
+ */
+public final class OkHttpStack extends BaseHttpStack {
+  // Idle connections kept open for reuse beyond the per-host limit, and for how long
+  private static final int MAX_IDLE_CONNECTIONS = 5;
+  private static final long KEEP_ALIVE_MINUTES = 5;
+
+  private final OkHttpClient client;
+  private final int maxConnectionsPerHost;
+  // Permits for the requests each host may have open, keyed by host and port
+  private final Map<String, Semaphore> hosts = new ConcurrentHashMap<>();
+
+  /**
+   * Create an OkHttp stack.
+   *
+   * @param setMaxConnectionsPerHost the most requests any one host may have open at once
+   */
+  public OkHttpStack(final int setMaxConnectionsPerHost) {
+    if (setMaxConnectionsPerHost < 1) {
+      throw new IllegalArgumentException("Need at least one connection per host");
+    }
+    maxConnectionsPerHost = setMaxConnectionsPerHost;
+    client =
+        new OkHttpClient.Builder()
+            .connectionPool(
+                new ConnectionPool(
+                    Math.max(MAX_IDLE_CONNECTIONS, setMaxConnectionsPerHost),
+                    KEEP_ALIVE_MINUTES,
+                    TimeUnit.MINUTES))
+            .build();
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public HttpResponse executeRequest(
+      final Request<?> request, final Map<String, String> additionalHeaders)
+      throws IOException, AuthFailureError {
+    okhttp3.Request.Builder builder = new okhttp3.Request.Builder().url(request.getUrl());
+    for (Map.Entry<String, String> header : request.getHeaders().entrySet()) {
+      builder.header(header.getKey(), header.getValue());
+    }
+    for (Map.Entry<String, String> header : additionalHeaders.entrySet()) {
+      builder.header(header.getKey(), header.getValue());
+    }
+    setMethod(builder, request);
+    okhttp3.Request okRequest = builder.build();
+
+    // Derived clients share the connection pool, so per-request timeouts cost no connections
+    long timeout = request.getTimeoutMs();
+    OkHttpClient timed =
+        client
+            .newBuilder()
+            .connectTimeout(timeout, TimeUnit.MILLISECONDS)
+            .readTimeout(timeout, TimeUnit.MILLISECONDS)
+            .writeTimeout(timeout, TimeUnit.MILLISECONDS)
+            .build();
+
+    Semaphore permits =
+        hosts.computeIfAbsent(
+            okRequest.url().host() + ":" + okRequest.url().port(),
+            host -> new Semaphore(maxConnectionsPerHost, true));
+    try {
+      permits.acquire();
+    } catch (InterruptedException e) {
+      throw new InterruptedIOException("Interrupted waiting for a connection");
+    }
+    int code;
+    List<Header> headers = new ArrayList<>();
+    byte[] data = null;
+    try (Response response = timed.newCall(okRequest).execute()) {
+      code = response.code();
+      Headers responseHeaders = response.headers();
+      for (int i = 0; i < responseHeaders.size(); i++) {
+        headers.add(new Header(responseHeaders.name(i), responseHeaders.value(i)));
+      }
+      ResponseBody body = response.body();
+      if (body != null && hasResponseBody(request.getMethod(), code)) {
+        data = body.bytes();
+      }
+    } finally {
+      permits.release();
+    }
+    if (data == null) {
+      return new HttpResponse(code, headers);
+    }
+    return new HttpResponse(code, headers, data.length, new ByteArrayInputStream(data));
+  }
+
+  private static void setMethod(
+      @NonNull final okhttp3.Request.Builder builder, @NonNull final Request<?> request)
+      throws AuthFailureError {
+    switch (request.getMethod()) {
+      case Request.Method.DEPRECATED_GET_OR_POST:
+        byte[] body = request.getBody();
+        if (body == null) {
+          builder.method("GET", null);
+        } else {
+          builder.method("POST", RequestBody.create(body, contentType(request)));
+        }
+        break;
+      case Request.Method.GET:
+        builder.method("GET", null);
+        break;
+      case Request.Method.DELETE:
+        builder.method("DELETE", null);
+        break;
+      case Request.Method.HEAD:
+        builder.method("HEAD", null);
+        break;
+      case Request.Method.OPTIONS:
+        builder.method("OPTIONS", null);
+        break;
+      case Request.Method.TRACE:
+        builder.method("TRACE", null);
+        break;
+      case Request.Method.POST:
+        builder.method("POST", requestBody(request));
+        break;
+      case Request.Method.PUT:
+        builder.method("PUT", requestBody(request));
+        break;
+      case Request.Method.PATCH:
+        builder.method("PATCH", requestBody(request));
+        break;
+      default:
+        throw new IllegalStateException("Unknown method type.");
+    }
+  }
+
+  // OkHttp requires a body for these methods even when the request has none
+  private static RequestBody requestBody(@NonNull final Request<?> request)
+      throws AuthFailureError {
+    byte[] body = request.getBody();
+    if (body == null) {
+      body = new byte[0];
+    }
+    return RequestBody.create(body, contentType(request));
+  }
+
+  private static MediaType contentType(@NonNull final Request<?> request) {
+    return MediaType.parse(request.getBodyContentType());
+  }
+
+  // Same rule as Volley's HurlStack: no body for HEAD, informational, 204, or 304 responses
+  private static boolean hasResponseBody(final int method, final int code) {
+    return method != Request.Method.HEAD
+        && code >= HttpURLConnection.HTTP_OK
+        && code != HttpURLConnection.HTTP_NO_CONTENT
+        && code != HttpURLConnection.HTTP_NOT_MODIFIED;
+  }
+}
@@ -0,0 +1,179 @@
+package edu.illinois.cs.cs125.fall2020.mp.network;
+
+import androidx.annotation.NonNull;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Locale;
+import java.util.zip.GZIPOutputStream;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.RecordedRequest;
+import okio.Buffer;
+
+/**
+ * JSON response body encoded once when catalog data is loaded.
+ *
+ * <p>Holds the compact UTF-8 bytes and a gzipped copy in okio buffers. Serving a request clones
+ * the appropriate buffer, which shares the underlying segments instead of copying or re-encoding.
+ *
+ * <p>Each representation also carries a strong ETag computed from its content, so clients that
+ * send a matching If-None-Match get an empty 304 instead of the body.
+ */
+final class PreparedBody {
+  private static final String JSON = "application/json; charset=utf-8";
+  private static final String GZIP = "gzip";
+
+  private static final String GZIP_TAG_SUFFIX = "-gz";
+  private static final int TAG_BYTES = 16;
+  private static final int BYTE_MASK = 0xff;
+  private static final int NIBBLE_BITS = 4;
+  private static final int NIBBLE_MASK = 0xf;
+  private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+  private final Buffer identity;
+  private final Buffer gzipped;
+  private final String identityTag;
+  private final String gzipTag;
+
+  /**
+   * Prepare a response body.
+   *
+   * @param json compact UTF-8 JSON bytes
+   */
+  PreparedBody(@NonNull final byte[] json) {
+    identity = new Buffer().write(json);
+    gzipped = new Buffer().write(gzip(json));
+    String hash = hash(json);
+    identityTag = "\"" + hash + "\"";
+    gzipTag = "\"" + hash + GZIP_TAG_SUFFIX + "\"";
+  }
+
+  private static String hash(@NonNull final byte[] bytes) {
+    byte[] digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256").digest(bytes);
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+    char[] hex = new char[TAG_BYTES * 2];
+    for (int i = 0; i < TAG_BYTES; i++) {
+      int value = digest[i] & BYTE_MASK;
+      hex[i * 2] = HEX[value >>> NIBBLE_BITS];
+      hex[i * 2 + 1] = HEX[value & NIBBLE_MASK];
+    }
+    return new String(hex);
+  }
+
+  private static byte[] gzip(@NonNull final byte[] bytes) {
+    ByteArrayOutputStream output = new ByteArrayOutputStream(bytes.length / 2 + 1);
+    try (GZIPOutputStream gzip = new GZIPOutputStream(output)) {
+      gzip.write(bytes);
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+    return output.toByteArray();
+  }
+
+  /**
+   * Get the number of bytes held by both representations of this body.
+   *
+   * @return the size in bytes
+   */
+  long size() {
+    return identity.size() + gzipped.size();
+  }
+
+  /**
+   * Get the strong ETag of the uncompressed representation.
+   *
+   * @return the quoted ETag
+   */
+  String getETag() {
+    return identityTag;
+  }
+
+  /**
+   * Build a response for this body.
+   *
+   * <p>Returns 304 if the request's If-None-Match lists one of this body's ETags, and otherwise a
+   * 200 carrying the body, gzipped if the request allows it.
+   *
+   * @param request the request being answered
+   * @return the response
+   */
+  MockResponse toResponse(@NonNull final RecordedRequest request) {
+    boolean gzip = acceptsGzip(request.getHeader("Accept-Encoding"));
+    String tag = identityTag;
+    if (gzip) {
+      tag = gzipTag;
+    }
+    MockResponse response =
+        new MockResponse().setHeader("ETag", tag).setHeader("Vary", "Accept-Encoding");
+    if (matches(request.getHeader("If-None-Match"))) {
+      return response.setResponseCode(HttpURLConnection.HTTP_NOT_MODIFIED);
+    }
+    response.setResponseCode(HttpURLConnection.HTTP_OK).setHeader("Content-Type", JSON);
+    if (gzip) {
+      return response.setHeader("Content-Encoding", GZIP).setBody(gzipped.clone());
+    }
+    return response.setBody(identity.clone());
+  }
+
+  /*
+   * If-None-Match uses weak comparison, so a W/ prefix is ignored and either representation's tag
+   * counts as a match: both encodings carry the same content.
+   */
+  private boolean matches(final String header) {
+    if (header == null) {
+      return false;
+    }
+    int start = 0;
+    while (start < header.length()) {
+      int end = header.indexOf(',', start);
+      if (end < 0) {
+        end = header.length();
+      }
+      String tag = header.substring(start, end).trim();
+      if (tag.startsWith("W/")) {
+        tag = tag.substring(2);
+      }
+      if (tag.equals("*") || tag.equals(identityTag) || tag.equals(gzipTag)) {
+        return true;
+      }
+      start = end + 1;
+    }
+    return false;
+  }
+
+  /**
+   * Check whether an Accept-Encoding header allows gzip.
+   *
+   * @param header the header value, possibly null
+   * @return whether gzip is acceptable
+   */
+  static boolean acceptsGzip(final String header) {
+    if (header == null) {
+      return false;
+    }
+    String lower = header.toLowerCase(Locale.ROOT);
+    int start = lower.indexOf(GZIP);
+    if (start < 0) {
+      return false;
+    }
+    int end = lower.indexOf(',', start);
+    if (end < 0) {
+      end = lower.length();
+    }
+    int quality = lower.indexOf("q=", start);
+    if (quality < 0 || quality > end) {
+      return true;
+    }
+    try {
+      return Double.parseDouble(lower.substring(quality + 2, end).trim()) > 0;
+    } catch (NumberFormatException e) {
+      return false;
+    }
+  }
+}
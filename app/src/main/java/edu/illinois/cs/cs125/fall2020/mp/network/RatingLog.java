@@ -0,0 +1,616 @@
+package edu.illinois.cs.cs125.fall2020.mp.network;
+
+import android.os.Build;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
+import android.util.Log;
+import androidx.annotation.NonNull;
+import edu.illinois.cs.cs125.fall2020.mp.models.CourseKey;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.CRC32;
+
+/**
+ * Write-ahead log that makes rating writes durable.
+ *
+ * <p>Every rating write is appended to the current log segment and the request waits until it
+ * has been fsynced. Writers that arrive while an fsync is in progress queue their records, and the
+ * next writer to find the log idle flushes the whole queue with a single fsync, so concurrent
+ * requests share the cost instead of lining up behind one fsync each.
+ *
+ * <p>Once a segment grows past a threshold, and periodically otherwise, the log rotates to a new
+ * segment, writes a snapshot of the whole store, and deletes the segments the snapshot covers. On
+ * startup the snapshot is loaded and the remaining segments are replayed in order. Records are
+ * framed with a length and CRC, so a write torn by a crash is detected and dropped.
+ *
+ * <p>A batch that cannot be written is discarded, and every write in it fails, so a writer is
+ * never told a write is durable unless it reached the disk.
+ *
+ * <p>Replay is safe to repeat because every record sets a client's rating to an absolute value.
+ * That is what lets a snapshot be taken while writes continue: anything it misses or captures
+ * early is corrected by replaying the newer segment.
+ */
+final class RatingLog {
+  private static final String TAG = RatingLog.class.getSimpleName();
+
+  private static final String SEGMENT_PREFIX = "ratings-";
+  private static final String SEGMENT_SUFFIX = ".log";
+  private static final String SNAPSHOT = "ratings.snapshot";
+  private static final String SNAPSHOT_TEMP = "ratings.snapshot.tmp";
+  private static final int SNAPSHOT_MAGIC = 0x52415431;
+  private static final int INT_BYTES = 4;
+  private static final int MAX_RECORD_SIZE = 64 * 1024;
+  private static final int INITIAL_BUFFER_SIZE = 4096;
+
+  // Compact once the active segment holds this many bytes
+  private static final long COMPACTION_THRESHOLD = 4L * 1024 * 1024;
+  // Also compact on this schedule if anything was written since the last snapshot
+  private static final long SNAPSHOT_PERIOD_MINUTES = 10;
+
+  private final File directory;
+  private final RatingStore store;
+
+  private final Object lock = new Object();
+  // Records appended but not yet written, guarded by lock
+  private ByteArrayOutputStream pending = new ByteArrayOutputStream(INITIAL_BUFFER_SIZE);
+  private long appended;
+  private long durable;
+  // Highest sequence handed to a flush, whether it succeeded or failed
+  private long taken;
+  // Batches that could not be written and still have writers to tell, guarded by lock
+  private final List<FailedRange> failed = new ArrayList<>();
+  private boolean flushing;
+  private FileChannel channel;
+  private long generation;
+  private long segmentSize;
+
+  private final AtomicBoolean compacting = new AtomicBoolean();
+  private final ScheduledExecutorService compactor =
+      Executors.newSingleThreadScheduledExecutor(
+          runnable -> {
+            Thread thread = new Thread(runnable, TAG);
+            thread.setDaemon(true);
+            return thread;
+          });
+
+  /*
+   * Sequences from first to last could not be written. Every writer's records land in a single
+   * batch, so each writer in the range is told exactly once, and the range is dropped once the
+   * writes it covers have all been claimed. Consecutive failed batches share one range.
+   */
+  private static final class FailedRange {
+    private final long first;
+    private long last;
+    private long unclaimed;
+
+    private FailedRange(final long setFirst, final long setLast) {
+      first = setFirst;
+      last = setLast;
+    }
+  }
+
+  private RatingLog(@NonNull final File setDirectory, @NonNull final RatingStore setStore) {
+    directory = setDirectory;
+    store = setStore;
+  }
+
+  /**
+   * Recover ratings from a log directory into a store and open the log for new writes.
+   *
+   * @param directory directory holding the snapshot and log segments, created if necessary
+   * @param store empty store to recover into
+   * @return the open log, which the store should be attached to
+   * @throws IOException if the directory cannot be used
+   */
+  static RatingLog open(@NonNull final File directory, @NonNull final RatingStore store)
+      throws IOException {
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Cannot create " + directory);
+    }
+    RatingLog log = new RatingLog(directory, store);
+    log.recover();
+    log.compactor.scheduleWithFixedDelay(
+        log::compactIfWritten,
+        SNAPSHOT_PERIOD_MINUTES,
+        SNAPSHOT_PERIOD_MINUTES,
+        TimeUnit.MINUTES);
+    return log;
+  }
+
+  /**
+   * Queue a rating write.
+   *
+   * <p>Sequence numbers follow the order records reach the log, so the store uses them to apply
+   * durable writes in the same order replay will.
+   *
+   * @param course the course being rated
+   * @param client the client submitting the rating
+   * @param rating the rating value
+   * @return sequence number to pass to {@link #sync(long)}
+   */
+  long append(
+      @NonNull final CourseKey course,
+      @NonNull final RatingStore.ClientKey client,
+      final double rating) {
+    synchronized (lock) {
+      try {
+        writeRecord(new DataOutputStream(pending), course, client, rating);
+      } catch (IOException e) {
+        // Writing to memory cannot fail
+        throw new IllegalStateException(e);
+      }
+      appended++;
+      return appended;
+    }
+  }
+
+  /**
+   * Queue several rating writes for one course so they are flushed in the same batch, and so
+   * either all of them become durable or none do.
+   *
+   * @param course the course being rated
+   * @param clients the clients submitting ratings
+   * @param ratings the rating from each client, in the same order
+   * @return sequence number of the last write, to pass to {@link #sync(long, long)} with the
+   *     first, which is this minus the number of writes plus one
+   */
+  long appendAll(
+      @NonNull final CourseKey course,
+      @NonNull final List<RatingStore.ClientKey> clients,
+      @NonNull final double[] ratings) {
+    synchronized (lock) {
+      for (int i = 0; i < clients.size(); i++) {
+        append(course, clients.get(i), ratings[i]);
+      }
+      return appended;
+    }
+  }
+
+  /**
+   * Wait until a queued write is durable, flushing the queue if no other writer is doing so.
+   *
+   * @param sequence sequence number returned by {@link #append}
+   * @throws IOException if the write could not be made durable
+   */
+  void sync(final long sequence) throws IOException {
+    sync(sequence, sequence);
+  }
+
+  /**
+   * Wait until a range of queued writes is durable, flushing the queue if no other writer is doing
+   * so.
+   *
+   * @param first sequence number of the first write
+   * @param last sequence number of the last write
+   * @throws IOException if any of the writes could not be made durable, in which case none of
+   *     them were if they were queued by {@link #appendAll}
+   */
+  void sync(final long first, final long last) throws IOException {
+    while (true) {
+      byte[] batch;
+      long from;
+      long upTo;
+      FileChannel target;
+      synchronized (lock) {
+        while (true) {
+          checkFailed(first, last);
+          if (durable >= last) {
+            return;
+          }
+          if (!flushing) {
+            break;
+          }
+          try {
+            lock.wait();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted waiting for rating log", e);
+          }
+        }
+        // Become the leader for everything queued so far
+        flushing = true;
+        batch = pending.toByteArray();
+        pending = new ByteArrayOutputStream(INITIAL_BUFFER_SIZE);
+        from = taken + 1;
+        upTo = appended;
+        taken = upTo;
+        target = channel;
+      }
+
+      IOException failure = null;
+      long start = 0;
+      try {
+        start = target.position();
+        writeFully(target, batch);
+        target.force(false);
+      } catch (IOException e) {
+        failure = e;
+        discardPartialWrite(target, start);
+      }
+
+      boolean compact = false;
+      synchronized (lock) {
+        flushing = false;
+        if (failure == null) {
+          durable = upTo;
+          segmentSize += batch.length;
+          compact = segmentSize > COMPACTION_THRESHOLD;
+        } else {
+          // This writer's records were in the batch, and it is told by the exception below
+          addFailed(from, upTo, upTo - from + 1 - (last - first + 1));
+        }
+        lock.notifyAll();
+      }
+      if (failure != null) {
+        throw failure;
+      }
+      if (compact && compacting.compareAndSet(false, true)) {
+        compactor.execute(this::compactNow);
+      }
+    }
+  }
+
+  // Called with lock held
+  private void checkFailed(final long first, final long last) throws IOException {
+    for (int i = 0; i < failed.size(); i++) {
+      FailedRange range = failed.get(i);
+      if (range.first <= last && first <= range.last) {
+        range.unclaimed -= last - first + 1;
+        if (range.unclaimed <= 0) {
+          failed.remove(i);
+        }
+        throw new IOException("Rating log write failed");
+      }
+    }
+  }
+
+  // Record a failed batch whose writes not yet told number unclaimed. Called with lock held.
+  private void addFailed(final long from, final long upTo, final long unclaimed) {
+    if (unclaimed <= 0) {
+      return;
+    }
+    if (!failed.isEmpty()) {
+      FailedRange previous = failed.get(failed.size() - 1);
+      if (previous.last + 1 == from) {
+        previous.last = upTo;
+        previous.unclaimed += unclaimed;
+        return;
+      }
+    }
+    FailedRange range = new FailedRange(from, upTo);
+    range.unclaimed = unclaimed;
+    failed.add(range);
+  }
+
+  // Never leave half a batch in the segment, since replay stops at the first bad record
+  private static void discardPartialWrite(@NonNull final FileChannel target, final long start) {
+    try {
+      target.truncate(start);
+    } catch (IOException e) {
+      Log.e(TAG, "Could not discard partial rating log write: " + e);
+    }
+  }
+
+  private static void writeFully(@NonNull final FileChannel target, @NonNull final byte[] bytes)
+      throws IOException {
+    ByteBuffer buffer = ByteBuffer.wrap(bytes);
+    while (buffer.hasRemaining()) {
+      target.write(buffer);
+    }
+  }
+
+  private static void writeRecord(
+      @NonNull final DataOutputStream output,
+      @NonNull final CourseKey course,
+      @NonNull final RatingStore.ClientKey client,
+      final double rating)
+      throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream record = new DataOutputStream(bytes);
+    record.writeUTF(course.getYear());
+    record.writeUTF(course.getSemester());
+    record.writeUTF(course.getDepartment());
+    record.writeUTF(course.getNumber());
+    record.writeLong(client.getHigh());
+    record.writeLong(client.getLow());
+    record.writeDouble(rating);
+    record.flush();
+
+    byte[] payload = bytes.toByteArray();
+    CRC32 crc = new CRC32();
+    crc.update(payload, 0, payload.length);
+    output.writeInt(payload.length);
+    output.write(payload);
+    output.writeInt((int) crc.getValue());
+    output.flush();
+  }
+
+  /*
+   * Read one framed record and apply it to the store. Returns the number of bytes consumed, or -1
+   * at a clean end of input, and throws if the record is truncated or corrupt.
+   */
+  private int readRecord(@NonNull final DataInputStream input) throws IOException {
+    int length;
+    try {
+      length = input.readInt();
+    } catch (EOFException e) {
+      return -1;
+    }
+    if (length <= 0 || length > MAX_RECORD_SIZE) {
+      throw new IOException("Bad record length " + length);
+    }
+    byte[] payload = new byte[length];
+    input.readFully(payload);
+    int expected = input.readInt();
+    CRC32 crc = new CRC32();
+    crc.update(payload, 0, payload.length);
+    if ((int) crc.getValue() != expected) {
+      throw new IOException("Bad record checksum");
+    }
+
+    DataInputStream record = new DataInputStream(new ByteArrayInputStream(payload));
+    CourseKey course =
+        CourseKey.of(record.readUTF(), record.readUTF(), record.readUTF(), record.readUTF());
+    RatingStore.ClientKey client = new RatingStore.ClientKey(record.readLong(), record.readLong());
+    store.apply(course, client, record.readDouble());
+    return INT_BYTES + length + INT_BYTES;
+  }
+
+  private void recover() throws IOException {
+    long firstGeneration = 0;
+    File snapshot = new File(directory, SNAPSHOT);
+    if (snapshot.isFile()) {
+      try (DataInputStream input =
+          new DataInputStream(new BufferedInputStream(new FileInputStream(snapshot)))) {
+        if (input.readInt() != SNAPSHOT_MAGIC) {
+          throw new IOException("Bad rating snapshot " + snapshot);
+        }
+        firstGeneration = input.readLong();
+        int consumed = 0;
+        while (consumed >= 0) {
+          consumed = readRecord(input);
+        }
+      }
+    }
+
+    List<Long> generations = segments();
+    long lastGeneration = firstGeneration;
+    for (long segment : generations) {
+      File file = segmentFile(segment);
+      if (segment < firstGeneration) {
+        deleteQuietly(file);
+        continue;
+      }
+      replay(file);
+      lastGeneration = Math.max(lastGeneration, segment);
+    }
+
+    // Start a fresh segment so a torn tail in the last one is never appended after
+    generation = lastGeneration + 1;
+    channel = openSegment(generation);
+    Log.i(TAG, "Recovered ratings through log segment " + lastGeneration);
+  }
+
+  private void replay(@NonNull final File file) throws IOException {
+    long valid = 0;
+    try (DataInputStream input =
+        new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+      for (int consumed = readRecord(input); consumed >= 0; consumed = readRecord(input)) {
+        valid += consumed;
+      }
+    } catch (IOException e) {
+      // A crash can leave a partial record at the tail; keep everything before it
+      Log.w(TAG, "Truncating " + file + " after " + valid + " bytes: " + e);
+      try (RandomAccessFile truncate = new RandomAccessFile(file, "rw")) {
+        truncate.setLength(valid);
+      }
+    }
+  }
+
+  private List<Long> segments() {
+    List<Long> generations = new ArrayList<>();
+    String[] names = directory.list();
+    if (names == null) {
+      return generations;
+    }
+    for (String name : names) {
+      if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX)) {
+        try {
+          int end = name.length() - SEGMENT_SUFFIX.length();
+          generations.add(Long.parseLong(name.substring(SEGMENT_PREFIX.length(), end)));
+        } catch (NumberFormatException ignored) {
+          // Not one of our segments
+        }
+      }
+    }
+    Collections.sort(generations);
+    return generations;
+  }
+
+  private File segmentFile(final long segment) {
+    return new File(directory, SEGMENT_PREFIX + segment + SEGMENT_SUFFIX);
+  }
+
+  private FileChannel openSegment(final long segment) throws IOException {
+    return new FileOutputStream(segmentFile(segment), true).getChannel();
+  }
+
+  private static void deleteQuietly(@NonNull final File file) {
+    if (file.exists() && !file.delete()) {
+      Log.w(TAG, "Could not delete " + file);
+    }
+  }
+
+  /**
+   * Rotate, snapshot, and delete covered segments now, unless a compaction is already running.
+   *
+   * @return whether this call ran a compaction
+   */
+  boolean compact() {
+    if (!compacting.compareAndSet(false, true)) {
+      return false;
+    }
+    compactNow();
+    return true;
+  }
+
+  private void compactIfWritten() {
+    boolean written;
+    synchronized (lock) {
+      written = segmentSize > 0 || appended > durable;
+    }
+    if (written && compacting.compareAndSet(false, true)) {
+      compactNow();
+    }
+  }
+
+  // Runs on the compactor thread with compacting set
+  private void compactNow() {
+    try {
+      long covered = rotate();
+      writeSnapshot(covered + 1);
+      for (long segment : segments()) {
+        if (segment <= covered) {
+          deleteQuietly(segmentFile(segment));
+        }
+      }
+    } catch (IOException e) {
+      Log.e(TAG, "Rating log compaction failed: " + e);
+    } finally {
+      compacting.set(false);
+    }
+  }
+
+  /*
+   * Flush whatever is queued into the current segment and switch new writes to the next one.
+   * Returns the generation of the segment that was closed.
+   */
+  private long rotate() throws IOException {
+    byte[] batch;
+    long from;
+    long upTo;
+    FileChannel previous;
+    long closed;
+    synchronized (lock) {
+      while (flushing) {
+        try {
+          lock.wait();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new IOException("Interrupted rotating rating log", e);
+        }
+      }
+      flushing = true;
+      batch = pending.toByteArray();
+      pending = new ByteArrayOutputStream(INITIAL_BUFFER_SIZE);
+      from = taken + 1;
+      upTo = appended;
+      taken = upTo;
+      previous = channel;
+      closed = generation;
+    }
+
+    IOException writeFailure = null;
+    long start = 0;
+    try {
+      start = previous.position();
+      writeFully(previous, batch);
+      previous.force(false);
+    } catch (IOException e) {
+      writeFailure = e;
+      discardPartialWrite(previous, start);
+    }
+    // The batch is durable even if the next segment cannot be opened, so keep using this one
+    FileChannel next = null;
+    IOException openFailure = null;
+    if (writeFailure == null) {
+      try {
+        next = openSegment(closed + 1);
+      } catch (IOException e) {
+        openFailure = e;
+      }
+    }
+
+    synchronized (lock) {
+      flushing = false;
+      if (writeFailure != null) {
+        addFailed(from, upTo, upTo - from + 1);
+      } else {
+        durable = upTo;
+        segmentSize += batch.length;
+        if (next != null) {
+          channel = next;
+          generation = closed + 1;
+          segmentSize = 0;
+        }
+      }
+      lock.notifyAll();
+    }
+    if (writeFailure != null) {
+      throw writeFailure;
+    }
+    if (openFailure != null) {
+      throw openFailure;
+    }
+    previous.close();
+    return closed;
+  }
+
+  private void writeSnapshot(final long firstGeneration) throws IOException {
+    File temp = new File(directory, SNAPSHOT_TEMP);
+    try (FileOutputStream file = new FileOutputStream(temp)) {
+      DataOutputStream output = new DataOutputStream(new BufferedOutputStream(file));
+      output.writeInt(SNAPSHOT_MAGIC);
+      output.writeLong(firstGeneration);
+      store.forEach((course, client, rating) -> writeRecord(output, course, client, rating));
+      output.flush();
+      file.getFD().sync();
+    }
+    if (!temp.renameTo(new File(directory, SNAPSHOT))) {
+      throw new IOException("Could not replace rating snapshot");
+    }
+    // Until the rename itself is durable, the segments the snapshot covers are still needed
+    syncDirectory();
+  }
+
+  private void syncDirectory() throws IOException {
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+      try (FileChannel handle = FileChannel.open(directory.toPath(), StandardOpenOption.READ)) {
+        handle.force(true);
+      }
+      return;
+    }
+    try {
+      FileDescriptor handle = Os.open(directory.getPath(), OsConstants.O_RDONLY, 0);
+      try {
+        Os.fsync(handle);
+      } finally {
+        Os.close(handle);
+      }
+    } catch (ErrnoException e) {
+      throw new IOException("Could not sync " + directory, e);
+    }
+  }
+}
@@ -0,0 +1,382 @@
+package edu.illinois.cs.cs125.fall2020.mp.network;
+
+import androidx.annotation.NonNull;
+import edu.illinois.cs.cs125.fall2020.mp.models.AggregateRating;
+import edu.illinois.cs.cs125.fall2020.mp.models.CourseKey;
+import edu.illinois.cs.cs125.fall2020.mp.models.Rating;
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Thread-safe store of client ratings for each course.
+ *
+ * <p>MockWebServer handles each connection on its own thread, so ratings are kept in concurrent
+ * maps: reads never lock, and writes only contend with other writes to the same course. Client
+ * UUIDs are stored as two packed longs rather than 36-character strings.
+ *
+ * <p>With a log attached, a write is applied only once it is durable, so a write that fails
+ * leaves the store unchanged and can never reach a snapshot.
+ */
+final class RatingStore {
+  /** Client identifier packed from a canonical UUID string. */
+  static final class ClientKey {
+    private static final int UUID_LENGTH = 36;
+    private static final int HEX_RADIX = 16;
+    private static final int BITS_PER_DIGIT = 4;
+    private static final int HALF_LENGTH = 18;
+
+    private final long high;
+    private final long low;
+
+    /**
+     * Create a key from its packed halves.
+     *
+     * @param setHigh the most significant 64 bits of the UUID
+     * @param setLow the least significant 64 bits of the UUID
+     */
+    ClientKey(final long setHigh, final long setLow) {
+      high = setHigh;
+      low = setLow;
+    }
+
+    /**
+     * Get the most significant 64 bits of the UUID.
+     *
+     * @return the high half
+     */
+    long getHigh() {
+      return high;
+    }
+
+    /**
+     * Get the least significant 64 bits of the UUID.
+     *
+     * @return the low half
+     */
+    long getLow() {
+      return low;
+    }
+
+    /**
+     * Pack a UUID string.
+     *
+     * @param uuid the UUID string, which the router has already validated
+     * @return the packed key
+     */
+    static ClientKey parse(@NonNull final String uuid) {
+      if (uuid.length() != UUID_LENGTH) {
+        throw new IllegalArgumentException("Bad UUID: " + uuid);
+      }
+      return new ClientKey(
+          parseHex(uuid, 0, HALF_LENGTH), parseHex(uuid, HALF_LENGTH, UUID_LENGTH));
+    }
+
+    private static long parseHex(@NonNull final String uuid, final int start, final int end) {
+      long value = 0;
+      for (int i = start; i < end; i++) {
+        char c = uuid.charAt(i);
+        if (c == '-') {
+          continue;
+        }
+        int digit = Character.digit(c, HEX_RADIX);
+        if (digit < 0) {
+          throw new IllegalArgumentException("Bad UUID: " + uuid);
+        }
+        value = (value << BITS_PER_DIGIT) | digit;
+      }
+      return value;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public boolean equals(final Object o) {
+      if (!(o instanceof ClientKey)) {
+        return false;
+      }
+      ClientKey other = (ClientKey) o;
+      return high == other.high && low == other.low;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int hashCode() {
+      long mixed = high ^ low;
+      return (int) (mixed ^ (mixed >>> Integer.SIZE));
+    }
+  }
+
+  /*
+   * Ratings for one course, plus running totals that are updated on every write so aggregate
+   * reads never walk the individual ratings. Writes to one course are serialized on this object;
+   * reads of a single client's rating stay lock-free.
+   */
+  private static final class CourseRatings {
+    private final Map<ClientKey, Double> byClient = new ConcurrentHashMap<>();
+    // Log sequence of each client's applied rating, guarded by this
+    private final Map<ClientKey, Long> sequences = new HashMap<>();
+    private final int[] histogram = new int[AggregateRating.STARS];
+    private int count;
+    private double sum;
+
+    /*
+     * Apply a write unless a write the log made durable after it has already been applied, which
+     * can happen when two writes from one client share a batch. Sequence 0 means unlogged.
+     */
+    private synchronized void put(
+        @NonNull final ClientKey client, final double rating, final long sequence) {
+      if (sequence > 0) {
+        Long applied = sequences.get(client);
+        if (applied != null && applied > sequence) {
+          return;
+        }
+        sequences.put(client, sequence);
+      }
+      Double previous;
+      if (rating < 0) {
+        previous = byClient.remove(client);
+      } else {
+        previous = byClient.put(client, rating);
+      }
+      if (previous != null) {
+        count--;
+        sum -= previous;
+        histogram[bucket(previous)]--;
+        if (count == 0) {
+          // Drop any floating point drift accumulated by earlier replacements
+          sum = 0;
+        }
+      }
+      if (rating >= 0) {
+        count++;
+        sum += rating;
+        histogram[bucket(rating)]++;
+      }
+    }
+
+    private synchronized AggregateRating aggregate() {
+      if (count == 0) {
+        return new AggregateRating(0, Rating.NOT_RATED, histogram);
+      }
+      return new AggregateRating(count, sum / count, histogram);
+    }
+
+    // Zero and fractional ratings count toward the star they round up to
+    private static int bucket(final double rating) {
+      int stars = (int) Math.ceil(rating);
+      return Math.max(1, Math.min(AggregateRating.STARS, stars)) - 1;
+    }
+  }
+
+  private static final int INITIAL_CAPACITY = 64;
+  private static final float LOAD_FACTOR = 0.75f;
+
+  private final Map<CourseKey, CourseRatings> ratings =
+      new ConcurrentHashMap<>(
+          INITIAL_CAPACITY, LOAD_FACTOR, Runtime.getRuntime().availableProcessors());
+
+  /**
+   * Read a client's rating for a course. Does not modify the store.
+   *
+   * @param course the course to look up
+   * @param client the client to look up
+   * @return the rating, or {@link Rating#NOT_RATED} if the client has not rated the course
+   */
+  double get(@NonNull final CourseKey course, @NonNull final ClientKey client) {
+    CourseRatings courseRatings = ratings.get(course);
+    if (courseRatings == null) {
+      return Rating.NOT_RATED;
+    }
+    Double rating = courseRatings.byClient.get(client);
+    if (rating == null) {
+      return Rating.NOT_RATED;
+    }
+    return rating;
+  }
+
+  /**
+   * Read the aggregate of all ratings for a course in constant time. Does not modify the store.
+   *
+   * @param course the course to look up
+   * @return the aggregate, which is empty if the course has no ratings
+   */
+  AggregateRating aggregate(@NonNull final CourseKey course) {
+    CourseRatings courseRatings = ratings.get(course);
+    if (courseRatings == null) {
+      return new AggregateRating();
+    }
+    return courseRatings.aggregate();
+  }
+
+  /** Receives every stored rating. */
+  interface Visitor {
+    /**
+     * Visit one stored rating.
+     *
+     * @param course the rated course
+     * @param client the client who rated it
+     * @param rating the rating value
+     * @throws IOException if the visitor fails
+     */
+    void visit(CourseKey course, ClientKey client, double rating) throws IOException;
+  }
+
+  /**
+   * Visit every stored rating.
+   *
+   * <p>Waits for logged writes in progress and holds off new ones only while the ratings are
+   * copied, so every write the log has made durable is seen and no write that might still fail is.
+   * The visitor runs on the copy once writes have resumed, so it may be slow.
+   *
+   * @param visitor the visitor to call for each rating
+   * @throws IOException if the visitor fails
+   */
+  void forEach(@NonNull final Visitor visitor) throws IOException {
+    List<Map.Entry<CourseKey, Map<ClientKey, Double>>> copy = new ArrayList<>(ratings.size());
+    inFlight.writeLock().lock();
+    try {
+      for (Map.Entry<CourseKey, CourseRatings> course : ratings.entrySet()) {
+        copy.add(
+            new AbstractMap.SimpleImmutableEntry<>(
+                course.getKey(), new HashMap<>(course.getValue().byClient)));
+      }
+    } finally {
+      inFlight.writeLock().unlock();
+    }
+    for (Map.Entry<CourseKey, Map<ClientKey, Double>> course : copy) {
+      for (Map.Entry<ClientKey, Double> rating : course.getValue().entrySet()) {
+        visitor.visit(course.getKey(), rating.getKey(), rating.getValue());
+      }
+    }
+  }
+
+  private volatile RatingLog log;
+  // Logged writes hold the read lock from append until applied; snapshots copy under the write lock
+  private final ReadWriteLock inFlight = new ReentrantReadWriteLock();
+
+  /**
+   * Make all subsequent writes durable through a log.
+   *
+   * @param setLog the log, which has already recovered its ratings into this store
+   */
+  void attach(@NonNull final RatingLog setLog) {
+    log = setLog;
+  }
+
+  /**
+   * Store a client's rating for a course, replacing any earlier rating from that client.
+   *
+   * <p>A negative rating such as {@link Rating#NOT_RATED} clears the client's rating. Callers are
+   * responsible for checking that the course exists. Ratings are kept even when the course's term
+   * is evicted from the catalog. If a log is attached, the rating is applied only once the write
+   * is durable.
+   *
+   * @param course the course being rated
+   * @param client the client submitting the rating
+   * @param rating the rating value
+   * @throws IOException if the write could not be made durable, in which case the store is
+   *     unchanged
+   */
+  void put(@NonNull final CourseKey course, @NonNull final ClientKey client, final double rating)
+      throws IOException {
+    RatingLog current = log;
+    if (current == null) {
+      courseRatings(course).put(client, rating, 0);
+      return;
+    }
+    inFlight.readLock().lock();
+    try {
+      long sequence = current.append(course, client, rating);
+      current.sync(sequence);
+      courseRatings(course).put(client, rating, sequence);
+    } finally {
+      inFlight.readLock().unlock();
+    }
+  }
+
+  /**
+   * Store several clients' ratings for one course as a single update.
+   *
+   * <p>The course is locked for the whole update, so aggregate readers see either none or all of
+   * it, and with a log attached the update costs one fsync rather than one per rating. Later
+   * entries for the same client replace earlier ones.
+   *
+   * @param course the course being rated
+   * @param clients the clients submitting ratings
+   * @param values the rating from each client, in the same order
+   * @throws IOException if the update could not be made durable, in which case none of it is
+   *     applied
+   */
+  void putAll(
+      @NonNull final CourseKey course,
+      @NonNull final List<ClientKey> clients,
+      @NonNull final double[] values)
+      throws IOException {
+    if (clients.isEmpty()) {
+      return;
+    }
+    RatingLog current = log;
+    if (current == null) {
+      applyAll(course, clients, values, 0);
+      return;
+    }
+    inFlight.readLock().lock();
+    try {
+      long last = current.appendAll(course, clients, values);
+      long first = last - clients.size() + 1;
+      current.sync(first, last);
+      applyAll(course, clients, values, first);
+    } finally {
+      inFlight.readLock().unlock();
+    }
+  }
+
+  // Apply an update whose writes have consecutive log sequences starting at first, or 0 if unlogged
+  private void applyAll(
+      @NonNull final CourseKey course,
+      @NonNull final List<ClientKey> clients,
+      @NonNull final double[] values,
+      final long first) {
+    CourseRatings courseRatings = courseRatings(course);
+    synchronized (courseRatings) {
+      for (int i = 0; i < clients.size(); i++) {
+        long sequence = 0;
+        if (first > 0) {
+          sequence = first + i;
+        }
+        courseRatings.put(clients.get(i), values[i], sequence);
+      }
+    }
+  }
+
+  /**
+   * Store a rating without logging it, used while recovering from the log.
+   *
+   * @param course the course being rated
+   * @param client the client submitting the rating
+   * @param rating the rating value
+   */
+  void apply(
+      @NonNull final CourseKey course, @NonNull final ClientKey client, final double rating) {
+    courseRatings(course).put(client, rating, 0);
+  }
+
+  private CourseRatings courseRatings(@NonNull final CourseKey course) {
+    CourseRatings courseRatings = ratings.get(course);
+    if (courseRatings == null) {
+      courseRatings = new CourseRatings();
+      // Stored keys live as long as the store, so they may as well be the canonical ones
+      CourseRatings existing = ratings.putIfAbsent(course.intern(), courseRatings);
+      if (existing != null) {
+        courseRatings = existing;
+      }
+    }
+    return courseRatings;
+  }
+}
@@ -0,0 +1,405 @@
+package edu.illinois.cs.cs125.fall2020.mp.network;
+
+import androidx.annotation.NonNull;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.RecordedRequest;
+
+/**
+ * Precompiled route table used by the course API server.
+ *
+ * <p>Routes are registered once as patterns like {@code /course/{year}/{semester}} and stored in a
+ * segment trie. Matching walks the request path a single time, recording parameter boundaries as
+ * offsets into the original path, so no regular expressions or intermediate arrays are involved.
+ * Parameter values are only turned into strings when a handler asks for them.
+ */
+final class Router {
+  /** Handler invoked for a matched route. */
+  interface Handler {
+    /**
+     * Handle a request that matched this route.
+     *
+     * @param request the request being handled
+     * @param match the parameters extracted from the request path
+     * @return the response to send
+     * @throws Exception if handling fails, which the server reports as an internal error
+     */
+    MockResponse handle(RecordedRequest request, Match match) throws Exception;
+  }
+
+  /** Validation applied to a path or query parameter. */
+  enum ParamType {
+    /** Any non-empty segment. */
+    SEGMENT,
+    /** One or more ASCII digits. */
+    DIGITS,
+    /** A canonical 36-character UUID string. */
+    UUID;
+
+    private static final int UUID_LENGTH = 36;
+    private static final int[] UUID_DASHES = {8, 13, 18, 23};
+
+    /**
+     * Check whether a region of a string is a valid value for this parameter type.
+     *
+     * @param s the string holding the value
+     * @param start the first index of the value
+     * @param end one past the last index of the value
+     * @return whether the value is valid
+     */
+    boolean matches(@NonNull final String s, final int start, final int end) {
+      if (end <= start) {
+        return false;
+      }
+      switch (this) {
+        case DIGITS:
+          for (int i = start; i < end; i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') {
+              return false;
+            }
+          }
+          return true;
+        case UUID:
+          if (end - start != UUID_LENGTH) {
+            return false;
+          }
+          int dash = 0;
+          for (int i = 0; i < UUID_LENGTH; i++) {
+            char c = s.charAt(start + i);
+            if (dash < UUID_DASHES.length && i == UUID_DASHES[dash]) {
+              if (c != '-') {
+                return false;
+              }
+              dash++;
+            } else if (Character.digit(c, HEX_RADIX) < 0) {
+              return false;
+            }
+          }
+          return true;
+        default:
+          return true;
+      }
+    }
+  }
+
+  private static final int HEX_RADIX = 16;
+  private static final int MAX_PARAMS = 8;
+
+  /**
+   * Result of matching a request path.
+   *
+   * <p>One instance is reused per thread, so handlers must not retain it past their return.
+   */
+  static final class Match {
+    private final int[] starts = new int[MAX_PARAMS];
+    private final int[] ends = new int[MAX_PARAMS];
+    private String path;
+    private int count;
+    private int queryStart;
+
+    private void reset(@NonNull final String setPath) {
+      path = setPath;
+      count = 0;
+      queryStart = path.indexOf('?');
+    }
+
+    /**
+     * Get the full request path this match was computed from.
+     *
+     * @return the request path
+     */
+    String getPath() {
+      return path;
+    }
+
+    /**
+     * Get a path parameter by position.
+     *
+     * @param index the position of the parameter in the route pattern
+     * @return the parameter value
+     */
+    String param(final int index) {
+      return path.substring(starts[index], ends[index]);
+    }
+
+    /**
+     * Get where a path parameter starts in the request path.
+     *
+     * @param index the position of the parameter in the route pattern
+     * @return the index of the parameter's first character
+     */
+    int start(final int index) {
+      return starts[index];
+    }
+
+    /**
+     * Get where a path parameter ends in the request path.
+     *
+     * @param index the position of the parameter in the route pattern
+     * @return the index just past the parameter's last character
+     */
+    int end(final int index) {
+      return ends[index];
+    }
+
+    /**
+     * Get a query parameter by name.
+     *
+     * @param name the name of the query parameter
+     * @return the parameter value, or null if it is not present
+     */
+    String query(@NonNull final String name) {
+      int start = queryValueStart(name);
+      if (start < 0) {
+        return null;
+      }
+      return path.substring(start, queryValueEnd(start));
+    }
+
+    private int queryValueStart(@NonNull final String name) {
+      if (queryStart < 0) {
+        return -1;
+      }
+      int i = queryStart + 1;
+      while (i < path.length()) {
+        int valueStart = i + name.length();
+        if (valueStart < path.length()
+            && path.regionMatches(i, name, 0, name.length())
+            && path.charAt(valueStart) == '=') {
+          return valueStart + 1;
+        }
+        int next = path.indexOf('&', i);
+        if (next < 0) {
+          break;
+        }
+        i = next + 1;
+      }
+      return -1;
+    }
+
+    private int queryValueEnd(final int start) {
+      int end = path.indexOf('&', start);
+      if (end < 0) {
+        return path.length();
+      }
+      return end;
+    }
+
+    private void add(final int start, final int end) {
+      starts[count] = start;
+      ends[count] = end;
+      count++;
+    }
+  }
+
+  private static final class Node {
+    private String[] literalKeys = new String[0];
+    private Node[] literalNodes = new Node[0];
+    private Node param;
+    private ParamType paramType;
+    private final Map<String, Route> routes = new HashMap<>();
+
+    private Node literal(@NonNull final String segment) {
+      for (int i = 0; i < literalKeys.length; i++) {
+        if (literalKeys[i].equals(segment)) {
+          return literalNodes[i];
+        }
+      }
+      Node child = new Node();
+      literalKeys = Arrays.copyOf(literalKeys, literalKeys.length + 1);
+      literalNodes = Arrays.copyOf(literalNodes, literalNodes.length + 1);
+      literalKeys[literalKeys.length - 1] = segment;
+      literalNodes[literalNodes.length - 1] = child;
+      return child;
+    }
+
+    private Node findLiteral(@NonNull final String path, final int start, final int end) {
+      int length = end - start;
+      for (int i = 0; i < literalKeys.length; i++) {
+        String key = literalKeys[i];
+        if (key.length() == length && path.regionMatches(start, key, 0, length)) {
+          return literalNodes[i];
+        }
+      }
+      return null;
+    }
+  }
+
+  private static final class Route {
+    private final Handler handler;
+    private final List<String> queryNames = new ArrayList<>();
+    private final List<ParamType> queryTypes = new ArrayList<>();
+
+    private Route(@NonNull final Handler setHandler) {
+      handler = setHandler;
+    }
+  }
+
+  private final Node root = new Node();
+  private final ThreadLocal<Match> matches =
+      new ThreadLocal<Match>() {
+        @Override
+        protected Match initialValue() {
+          return new Match();
+        }
+      };
+
+  /**
+   * Register a route.
+   *
+   * <p>Patterns are literal path segments mixed with parameters written as {@code {name}} or
+   * {@code {name:type}}, where type is {@code digits} or {@code uuid}. Required query parameters
+   * follow a {@code ?}, for example {@code /rating/{year}?client={client:uuid}}.
+   *
+   * @param method the HTTP method to match
+   * @param pattern the route pattern
+   * @param handler the handler to invoke
+   */
+  void add(
+      @NonNull final String method,
+      @NonNull final String pattern,
+      @NonNull final Handler handler) {
+    String pathPattern = pattern;
+    String queryPattern = "";
+    int question = pattern.indexOf('?');
+    if (question >= 0) {
+      pathPattern = pattern.substring(0, question);
+      queryPattern = pattern.substring(question + 1);
+    }
+
+    Node node = root;
+    int params = 0;
+    for (String segment : pathPattern.split("/")) {
+      if (segment.isEmpty()) {
+        continue;
+      }
+      if (segment.startsWith("{")) {
+        ParamType type = parseType(segment);
+        if (node.param != null && node.paramType != type) {
+          throw new IllegalArgumentException("Conflicting parameter types in " + pattern);
+        }
+        if (node.param == null) {
+          node.param = new Node();
+          node.paramType = type;
+        }
+        node = node.param;
+        params++;
+      } else {
+        node = node.literal(segment);
+      }
+    }
+    if (params > MAX_PARAMS) {
+      throw new IllegalArgumentException("Too many parameters in " + pattern);
+    }
+
+    Route route = new Route(handler);
+    for (String query : queryPattern.split("&")) {
+      if (query.isEmpty()) {
+        continue;
+      }
+      int equals = query.indexOf('=');
+      if (equals < 0) {
+        throw new IllegalArgumentException("Bad query parameter in " + pattern);
+      }
+      route.queryNames.add(query.substring(0, equals));
+      route.queryTypes.add(parseType(query.substring(equals + 1)));
+    }
+    node.routes.put(method.toUpperCase(Locale.ROOT), route);
+  }
+
+  private static ParamType parseType(@NonNull final String segment) {
+    if (!segment.startsWith("{") || !segment.endsWith("}")) {
+      throw new IllegalArgumentException("Bad parameter " + segment);
+    }
+    int colon = segment.indexOf(':');
+    if (colon < 0) {
+      return ParamType.SEGMENT;
+    }
+    return ParamType.valueOf(segment.substring(colon + 1, segment.length() - 1).toUpperCase());
+  }
+
+  /**
+   * Route a request to its handler.
+   *
+   * <p>Paths that stop matching where only fixed segments are registered produce 404. Paths that
+   * stop matching where a parameter is expected, or that are missing a required query parameter,
+   * produce 400. A single trailing slash is tolerated. Methods are matched ignoring case, and a
+   * known path requested with a method it has no route for produces 405, except for the root,
+   * which only answers the server's startup probe and reports anything else there as unknown.
+   *
+   * @param request the request to route
+   * @return the handler's response, or an error response if no route matched
+   * @throws Exception if the handler throws
+   */
+  @NonNull
+  MockResponse dispatch(@NonNull final RecordedRequest request) throws Exception {
+    String path = request.getPath();
+    String method = request.getMethod();
+    if (path == null || method == null || path.isEmpty() || path.charAt(0) != '/') {
+      return new MockResponse().setResponseCode(HttpURLConnection.HTTP_NOT_FOUND);
+    }
+
+    Match match = matches.get();
+    match.reset(path);
+    int end = match.queryStart;
+    if (end < 0) {
+      end = path.length();
+    }
+
+    Node node = root;
+    int i = 1;
+    while (i < end) {
+      int next = path.indexOf('/', i);
+      if (next < 0 || next > end) {
+        next = end;
+      }
+      if (next == i) {
+        // An empty segment between two slashes; a single trailing slash ends the loop instead
+        return badPath(node);
+      }
+      Node child = node.findLiteral(path, i, next);
+      if (child == null && node.param != null && node.paramType.matches(path, i, next)) {
+        match.add(i, next);
+        child = node.param;
+      }
+      if (child == null) {
+        return badPath(node);
+      }
+      node = child;
+      i = next + 1;
+    }
+
+    if (node.routes.isEmpty()) {
+      return badPath(node);
+    }
+    Route route = node.routes.get(method.toUpperCase(Locale.ROOT));
+    if (route == null && node == root) {
+      return new MockResponse().setResponseCode(HttpURLConnection.HTTP_NOT_FOUND);
+    }
+    if (route == null) {
+      return new MockResponse().setResponseCode(HttpURLConnection.HTTP_BAD_METHOD);
+    }
+    for (int q = 0; q < route.queryNames.size(); q++) {
+      int start = match.queryValueStart(route.queryNames.get(q));
+      if (start < 0 || !route.queryTypes.get(q).matches(path, start, match.queryValueEnd(start))) {
+        return new MockResponse().setResponseCode(HttpURLConnection.HTTP_BAD_REQUEST);
+      }
+    }
+    return route.handler.handle(request, match);
+  }
+
+  // A path is malformed if it went wrong at a parameter, and simply unknown otherwise
+  private static MockResponse badPath(@NonNull final Node node) {
+    if (node.param == null) {
+      return new MockResponse().setResponseCode(HttpURLConnection.HTTP_NOT_FOUND);
+    }
+    return new MockResponse().setResponseCode(HttpURLConnection.HTTP_BAD_REQUEST);
+  }
+}
@@ -0,0 +1,269 @@
+package edu.illinois.cs.cs125.fall2020.mp.network;
+
+import androidx.annotation.NonNull;
+import edu.illinois.cs.cs125.fall2020.mp.models.Summary;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Full-text index over the courses of one term, ranked with BM25.
+ *
+ * <p>Each course's department, number, title, description, and distinct section text are tokenized
+ * into lowercase runs of letters and digits, with the department, number, and title weighted
+ * above the rest. Every token maps to a posting list of the courses containing it and how often,
+ * so a query only touches the courses that share a token with it. Inverse document frequencies and
+ * per-course length normalization are computed once when the index is built, leaving a handful of
+ * multiply-adds per posting at query time. Scores accumulate in arrays kept by each searching
+ * thread, and only the entries a query touched are cleared afterward, so a query costs time in
+ * proportion to its postings rather than to the size of the catalog.
+ */
+final class SearchIndex {
+  // Standard BM25 term frequency saturation and length normalization parameters
+  private static final double K1 = 1.2;
+  private static final double B = 0.75;
+  // Smoothing added to document frequencies in the BM25 IDF
+  private static final double IDF_SMOOTHING = 0.5;
+  // Each heading token counts as this many body tokens, so "cs 125" finds CS 125 before courses
+  // that merely mention it
+  private static final int HEADING_WEIGHT = 3;
+
+  // Rough per-object overhead used when estimating memory use
+  private static final int OBJECT_OVERHEAD = 64;
+  private static final int POSTING_BYTES = 8;
+  private static final int INITIAL_POSTINGS = 4;
+
+  /** Courses containing one token. */
+  private static final class Postings {
+    private int[] documents = new int[INITIAL_POSTINGS];
+    private int[] frequencies = new int[INITIAL_POSTINGS];
+    private int size;
+    private double idf;
+
+    private void add(final int document, final int frequency) {
+      if (size == documents.length) {
+        documents = Arrays.copyOf(documents, size * 2);
+        frequencies = Arrays.copyOf(frequencies, size * 2);
+      }
+      documents[size] = document;
+      frequencies[size] = frequency;
+      size++;
+    }
+
+    private void trim() {
+      documents = Arrays.copyOf(documents, size);
+      frequencies = Arrays.copyOf(frequencies, size);
+    }
+  }
+
+  /** Score accumulators reused by the queries of one thread. */
+  private static final class Scratch {
+    private final double[] scores;
+    private final int[] touched;
+
+    private Scratch(final int documents) {
+      scores = new double[documents];
+      touched = new int[documents];
+    }
+  }
+
+  /** Accumulates courses before the index statistics are computed. */
+  static final class Builder {
+    private final List<Summary> documents = new ArrayList<>();
+    private final List<Integer> lengths = new ArrayList<>();
+    private final Map<String, Postings> index = new HashMap<>();
+
+    /**
+     * Add a course to the index.
+     *
+     * @param course the course, returned as-is by searches that match it
+     * @param heading short identifying text, such as the course name, weighted above the body
+     * @param body longer descriptive text fields
+     */
+    void add(
+        @NonNull final Summary course,
+        @NonNull final String heading,
+        @NonNull final List<String> body) {
+      Map<String, int[]> counts = new HashMap<>();
+      int length = count(counts, heading, HEADING_WEIGHT);
+      for (String text : body) {
+        length += count(counts, text, 1);
+      }
+      int document = documents.size();
+      documents.add(course);
+      lengths.add(length);
+      for (Map.Entry<String, int[]> count : counts.entrySet()) {
+        Postings postings = index.get(count.getKey());
+        if (postings == null) {
+          postings = new Postings();
+          index.put(count.getKey(), postings);
+        }
+        postings.add(document, count.getValue()[0]);
+      }
+    }
+
+    private static int count(
+        @NonNull final Map<String, int[]> counts, @NonNull final String text, final int weight) {
+      int length = 0;
+      for (String token : tokenize(text)) {
+        int[] count = counts.get(token);
+        if (count == null) {
+          count = new int[1];
+          counts.put(token, count);
+        }
+        count[0] += weight;
+        length += weight;
+      }
+      return length;
+    }
+
+    /**
+     * Compute the index statistics. The builder should not be used afterward.
+     *
+     * @return the finished index
+     */
+    SearchIndex build() {
+      return new SearchIndex(this);
+    }
+  }
+
+  private final Summary[] documents;
+  // K1 * (1 - B + B * length / averageLength) for each course
+  private final double[] lengthNorms;
+  private final Map<String, Postings> index;
+  private final long size;
+  // Every score is zero between queries
+  private final ThreadLocal<Scratch> scratch =
+      new ThreadLocal<Scratch>() {
+        /** {@inheritDoc} */
+        @Override
+        protected Scratch initialValue() {
+          return new Scratch(documents.length);
+        }
+      };
+
+  private SearchIndex(@NonNull final Builder builder) {
+    documents = builder.documents.toArray(new Summary[0]);
+    index = builder.index;
+
+    long totalLength = 0;
+    for (int length : builder.lengths) {
+      totalLength += length;
+    }
+    double averageLength = 1;
+    if (totalLength > 0) {
+      averageLength = (double) totalLength / documents.length;
+    }
+    lengthNorms = new double[documents.length];
+    for (int i = 0; i < documents.length; i++) {
+      lengthNorms[i] = K1 * (1 - B + B * builder.lengths.get(i) / averageLength);
+    }
+
+    long total = (long) documents.length * POSTING_BYTES;
+    for (Map.Entry<String, Postings> entry : index.entrySet()) {
+      Postings postings = entry.getValue();
+      postings.trim();
+      double missing = documents.length - postings.size + IDF_SMOOTHING;
+      postings.idf = Math.log(1 + missing / (postings.size + IDF_SMOOTHING));
+      total += OBJECT_OVERHEAD + 2L * entry.getKey().length();
+      total += (long) postings.size * POSTING_BYTES;
+    }
+    size = total;
+  }
+
+  /**
+   * Find the courses that best match a query.
+   *
+   * @param query free text to search for
+   * @param limit maximum number of results to return
+   * @return matching courses, best match first
+   */
+  List<Summary> search(@NonNull final String query, final int limit) {
+    Scratch current = scratch.get();
+    double[] scores = current.scores;
+    int[] touched = current.touched;
+    int matched = 0;
+    try {
+      for (String token : new LinkedHashSet<>(tokenize(query))) {
+        Postings postings = index.get(token);
+        if (postings == null) {
+          continue;
+        }
+        for (int i = 0; i < postings.size; i++) {
+          int document = postings.documents[i];
+          int frequency = postings.frequencies[i];
+          if (scores[document] == 0) {
+            touched[matched++] = document;
+          }
+          scores[document] +=
+              postings.idf * frequency * (K1 + 1) / (frequency + lengthNorms[document]);
+        }
+      }
+
+      // Keep the best results in a min-heap so the worst of them is the one replaced; ties go to
+      // the course that was indexed first
+      PriorityQueue<Integer> best =
+          new PriorityQueue<>(
+              Math.max(1, Math.min(limit, matched)),
+              (first, second) -> {
+                int compare = Double.compare(scores[first], scores[second]);
+                if (compare != 0) {
+                  return compare;
+                }
+                return Integer.compare(second, first);
+              });
+      for (int i = 0; i < matched; i++) {
+        best.add(touched[i]);
+        if (best.size() > limit) {
+          best.poll();
+        }
+      }
+      Summary[] results = new Summary[best.size()];
+      for (int i = results.length - 1; i >= 0; i--) {
+        results[i] = documents[best.poll()];
+      }
+      return Arrays.asList(results);
+    } finally {
+      for (int i = 0; i < matched; i++) {
+        scores[touched[i]] = 0;
+      }
+    }
+  }
+
+  /**
+   * Get the approximate memory held by this index.
+   *
+   * @return the size in bytes
+   */
+  long size() {
+    return size;
+  }
+
+  /**
+   * Split text into lowercase tokens of letters and digits.
+   *
+   * @param text the text to split
+   * @return the tokens in order, including repeats
+   */
+  static List<String> tokenize(@NonNull final String text) {
+    List<String> tokens = new ArrayList<>();
+    StringBuilder token = new StringBuilder();
+    for (int i = 0; i < text.length(); i++) {
+      char c = text.charAt(i);
+      if (Character.isLetterOrDigit(c)) {
+        token.append(Character.toLowerCase(c));
+      } else if (token.length() > 0) {
+        tokens.add(token.toString());
+        token.setLength(0);
+      }
+    }
+    if (token.length() > 0) {
+      tokens.add(token.toString());
+    }
+    return tokens;
+  }
+}
@@ -1,20 +1,26 @@
 package edu.illinois.cs.cs125.fall2020.mp.network;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.DeserializationFeature;
-import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import edu.illinois.cs.cs125.fall2020.mp.application.CourseableApplication;
+import edu.illinois.cs.cs125.fall2020.mp.models.AggregateRating;
+import edu.illinois.cs.cs125.fall2020.mp.models.CourseKey;
+import edu.illinois.cs.cs125.fall2020.mp.models.CourseRating;
 import edu.illinois.cs.cs125.fall2020.mp.models.Rating;
 import edu.illinois.cs.cs125.fall2020.mp.models.Summary;
+import java.io.File;
 import java.io.IOException;
 import java.net.HttpURLConnection;
-import java.util.HashMap;
-import java.util.Iterator;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Scanner;
-import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import okhttp3.mockwebserver.Dispatcher;
 import okhttp3.mockwebserver.MockResponse;
 import okhttp3.mockwebserver.MockWebServer;
@@ -35,107 +41,241 @@ public final class Server extends Dispatcher {
   @SuppressWarnings({"unused", "RedundantSuppression"})
   private static final String TAG = Server.class.getSimpleName();
 
-  private final Map<String, String> summaries = new HashMap<>();
+  private final TermCatalog catalog;
 
   // summary/YEAR/SEMESTER
-  private MockResponse getSummary(@NonNull final String path) {
-    String[] parts = path.split("/");
-    final int curLength = 2;
-    if (parts.length != curLength) {
-      return new MockResponse().setResponseCode(HttpURLConnection.HTTP_BAD_REQUEST);
+  private MockResponse getSummary(
+      @NonNull final RecordedRequest request, @NonNull final Router.Match match)
+      throws IOException {
+    Term term = catalog.get(match.param(0), match.param(1));
+    if (term == null) {
+      return new MockResponse().setResponseCode(HttpURLConnection.HTTP_NOT_FOUND);
     }
+    return term.getSummary().toResponse(request);
+  }
 
-    String summary = summaries.get(parts[0] + "_" + parts[1]);
-    if (summary == null) {
+  // course/YEAR/SEMESTER/DEPARTMENT/NUMBER
+  private MockResponse getCourse(
+      @NonNull final RecordedRequest request, @NonNull final Router.Match match)
+      throws IOException {
+    PreparedBody course = findCourse(courseKey(match));
+    if (course == null) {
       return new MockResponse().setResponseCode(HttpURLConnection.HTTP_NOT_FOUND);
     }
-    return new MockResponse().setResponseCode(HttpURLConnection.HTTP_OK).setBody(summary);
+    return course.toResponse(request);
+  }
+
+  private PreparedBody findCourse(@Nullable final CourseKey course) throws IOException {
+    if (course == null) {
+      return null;
+    }
+    Term term = catalog.get(course.getYear(), course.getSemester());
+    if (term == null) {
+      return null;
+    }
+    return term.getCourse(course);
   }
 
-  @SuppressWarnings("MismatchedQueryAndUpdateOfCollection")
-  private final Map<Summary, String> courses = new HashMap<>();
+  private static final int DEFAULT_SEARCH_LIMIT = 10;
+  private static final int MAX_SEARCH_LIMIT = 100;
 
-  // course/YEAR/SEMESTER/DEPARTMENT/NUMBER
-  private MockResponse getCourse(@NonNull final String path) {
-    String[] parts = path.split("/");
-    final int curLength = 4;
-    if (parts.length != curLength) {
+  // search/YEAR/SEMESTER?q=QUERY&limit=K
+  private MockResponse search(@NonNull final Router.Match match) throws IOException {
+    Term term = catalog.get(match.param(0), match.param(1));
+    if (term == null) {
+      return new MockResponse().setResponseCode(HttpURLConnection.HTTP_NOT_FOUND);
+    }
+    int limit = DEFAULT_SEARCH_LIMIT;
+    String query;
+    try {
+      String limitParameter = match.query("limit");
+      if (limitParameter != null) {
+        limit = Integer.parseInt(limitParameter);
+      }
+      query = URLDecoder.decode(match.query("q"), "UTF-8");
+    } catch (IllegalArgumentException e) {
       return new MockResponse().setResponseCode(HttpURLConnection.HTTP_BAD_REQUEST);
     }
+    if (limit < 1 || limit > MAX_SEARCH_LIMIT) {
+      return new MockResponse().setResponseCode(HttpURLConnection.HTTP_BAD_REQUEST);
+    }
+    return new MockResponse()
+        .setResponseCode(HttpURLConnection.HTTP_OK)
+        .setBody(mapper.writeValueAsString(term.getSearchIndex().search(query, limit)));
+  }
 
-    String course = courses.get(new Summary(parts[0], parts[1], parts[2], parts[3], ""));
-    if (course == null) {
+  private final RatingStore ratings = new RatingStore();
+
+  // rating/YEAR/SEMESTER/DEPARTMENT/NUMBER?client=UUID
+  private MockResponse getRating(@NonNull final Router.Match match) throws IOException {
+    CourseKey course = courseKey(match);
+    if (findCourse(course) == null) {
       return new MockResponse().setResponseCode(HttpURLConnection.HTTP_NOT_FOUND);
     }
-    return new MockResponse().setResponseCode(HttpURLConnection.HTTP_OK).setBody(course);
+    String clientID = match.query(CLIENT);
+    double rating = ratings.get(course, RatingStore.ClientKey.parse(clientID));
+    return new MockResponse()
+        .setResponseCode(HttpURLConnection.HTTP_OK)
+        .setBody(mapper.writeValueAsString(new Rating(clientID, rating)));
   }
 
-  private final Map<Summary, Map<String, Rating>> ratings = new HashMap<>();
-
   // rating/YEAR/SEMESTER/DEPARTMENT/NUMBER?client=UUID
-  private MockResponse getOrPostRating(@NonNull final RecordedRequest request) {
-    String path = request.getPath().replaceFirst("/rating/", "");
-    String[] parts = path.split("/|\\?client=");
-    Summary summary = new Summary(parts[0], parts[1], parts[2], parts[3], "");
-    final int prtLength = 5, uuidLength = 36, mgcNum = 4;
-    if (parts.length == prtLength && parts[mgcNum].length() == uuidLength) {
-      Set<Summary> set = ratings.keySet();
-      if (set.contains(summary)) {
-        if (request.getMethod().equals("GET")) {
-          if (ratings.get(summary) == null) {
-            ratings.put(summary, new HashMap<>());
-          }
-          if (ratings.get(summary).get(parts[mgcNum]) == null) {
-            ratings.get(summary).put(parts[mgcNum], new Rating(parts[mgcNum], Rating.NOT_RATED));
-          }
-          try {
-            return new MockResponse()
-                .setResponseCode(HttpURLConnection.HTTP_OK)
-                .setBody(mapper.writeValueAsString(ratings.get(summary).get(parts[mgcNum])));
-          } catch (JsonProcessingException e) {
-            e.printStackTrace();
-          }
-        } else if (request.getMethod().equals("POST")) {
-          try {
-            Rating rating = mapper.readValue(request.getBody().readUtf8(), Rating.class);
-            ratings.get(summary).put(parts[mgcNum], rating);
-            System.out.println(request.getPath());
-            return new MockResponse()
-                .setResponseCode(HttpURLConnection.HTTP_MOVED_TEMP)
-                .setHeader("Location", request.getPath());
-          } catch (JsonProcessingException e) {
-            e.printStackTrace();
-          }
-        }
+  private MockResponse postRating(
+      @NonNull final RecordedRequest request, @NonNull final Router.Match match)
+      throws IOException {
+    CourseKey course = courseKey(match);
+    if (findCourse(course) == null) {
+      return new MockResponse().setResponseCode(HttpURLConnection.HTTP_NOT_FOUND);
+    }
+    String clientID = match.query(CLIENT);
+    Rating rating;
+    try {
+      rating = mapper.readValue(request.getBody().readUtf8(), Rating.class);
+    } catch (JsonProcessingException e) {
+      return new MockResponse().setResponseCode(HttpURLConnection.HTTP_BAD_REQUEST);
+    }
+    if (!clientID.equals(rating.getId()) || !isValidRating(rating.getRating())) {
+      return new MockResponse().setResponseCode(HttpURLConnection.HTTP_BAD_REQUEST);
+    }
+    ratings.put(course, RatingStore.ClientKey.parse(clientID), rating.getRating());
+    return new MockResponse()
+        .setResponseCode(HttpURLConnection.HTTP_MOVED_TEMP)
+        .setHeader("Location", match.getPath());
+  }
+
+  /*
+   * ratings/batch. Entries are checked one by one, so a bad entry does not hold back the rest, and
+   * the response has a status for each entry in order: OK once applied, BAD_REQUEST if malformed,
+   * and NOT_FOUND if the course is not in the catalog. Only a body that is not a list of ratings
+   * fails the whole request.
+   */
+  private MockResponse postRatings(@NonNull final RecordedRequest request) throws IOException {
+    CourseRating[] entries;
+    try {
+      entries = mapper.readValue(request.getBody().readUtf8(), CourseRating[].class);
+    } catch (JsonProcessingException e) {
+      return new MockResponse().setResponseCode(HttpURLConnection.HTTP_BAD_REQUEST);
+    }
+    if (entries == null) {
+      return new MockResponse().setResponseCode(HttpURLConnection.HTTP_BAD_REQUEST);
+    }
+
+    // Apply each course's accepted entries together
+    int[] results = new int[entries.length];
+    Map<CourseKey, List<CourseRating>> byCourse = new LinkedHashMap<>();
+    for (int i = 0; i < entries.length; i++) {
+      CourseKey course = batchCourse(entries[i]);
+      if (course == null) {
+        results[i] = HttpURLConnection.HTTP_BAD_REQUEST;
+        continue;
       }
+      if (findCourse(course) == null) {
+        results[i] = HttpURLConnection.HTTP_NOT_FOUND;
+        continue;
+      }
+      results[i] = HttpURLConnection.HTTP_OK;
+      List<CourseRating> courseEntries = byCourse.get(course);
+      if (courseEntries == null) {
+        courseEntries = new ArrayList<>();
+        byCourse.put(course, courseEntries);
+      }
+      courseEntries.add(entries[i]);
+    }
+    for (Map.Entry<CourseKey, List<CourseRating>> course : byCourse.entrySet()) {
+      List<CourseRating> courseEntries = course.getValue();
+      List<RatingStore.ClientKey> clients = new ArrayList<>(courseEntries.size());
+      double[] values = new double[courseEntries.size()];
+      for (int i = 0; i < values.length; i++) {
+        Rating rating = courseEntries.get(i).getRating();
+        clients.add(RatingStore.ClientKey.parse(rating.getId()));
+        values[i] = rating.getRating();
+      }
+      ratings.putAll(course.getKey(), clients, values);
+    }
+    return new MockResponse()
+        .setResponseCode(HttpURLConnection.HTTP_OK)
+        .setBody(mapper.writeValueAsString(results));
+  }
+
+  // The course key for a well-formed batch entry, or null if the entry is malformed
+  @Nullable
+  private static CourseKey batchCourse(@Nullable final CourseRating entry) {
+    if (entry == null || entry.getCourse() == null || entry.getRating() == null) {
+      return null;
+    }
+    Summary course = entry.getCourse();
+    Rating rating = entry.getRating();
+    if (course.getYear() == null
+        || course.getSemester() == null
+        || course.getDepartment() == null
+        || course.getNumber() == null
+        || rating.getId() == null
+        || !Router.ParamType.UUID.matches(rating.getId(), 0, rating.getId().length())
+        || !isValidRating(rating.getRating())) {
+      return null;
+    }
+    return CourseKey.of(course);
+  }
+
+  // Either a star rating or NOT_RATED, which clears an earlier rating
+  private static boolean isValidRating(final double rating) {
+    return rating == Rating.NOT_RATED || (rating >= 0 && rating <= AggregateRating.STARS);
+  }
+
+  // aggregate/YEAR/SEMESTER/DEPARTMENT/NUMBER
+  private MockResponse getAggregate(@NonNull final Router.Match match) throws IOException {
+    CourseKey course = courseKey(match);
+    if (findCourse(course) == null) {
       return new MockResponse().setResponseCode(HttpURLConnection.HTTP_NOT_FOUND);
     }
-    return new MockResponse().setResponseCode(HttpURLConnection.HTTP_BAD_REQUEST);
+    return new MockResponse()
+        .setResponseCode(HttpURLConnection.HTTP_OK)
+        .setBody(mapper.writeValueAsString(ratings.aggregate(course)));
+  }
+
+  // Catalog courses are interned when their term loads, so known courses parse without allocating
+  @Nullable
+  private static CourseKey courseKey(@NonNull final Router.Match match) {
+    return CourseKey.parse(match.getPath(), match.start(0), match.end(3));
+  }
+
+  private static final String CLIENT = "client";
+
+  private final Router router = new Router();
+
+  private void addRoutes() {
+    router.add("HEAD", "/", (request, match) -> new MockResponse());
+    router.add("GET", "/summary/{year}/{semester}", this::getSummary);
+    router.add("GET", "/course/{year}/{semester}/{department}/{number}", this::getCourse);
+    router.add("GET", "/search/{year}/{semester}?q={q}", (request, match) -> search(match));
+    router.add(
+        "GET",
+        "/rating/{year}/{semester}/{department}/{number}?client={client:uuid}",
+        (request, match) -> getRating(match));
+    router.add(
+        "POST",
+        "/rating/{year}/{semester}/{department}/{number}?client={client:uuid}",
+        this::postRating);
+    router.add("POST", "/ratings/batch", (request, match) -> postRatings(request));
+    router.add(
+        "GET",
+        "/aggregate/{year}/{semester}/{department}/{number}",
+        (request, match) -> getAggregate(match));
   }
 
   @NonNull
   @Override
   public MockResponse dispatch(@NonNull final RecordedRequest request) {
     try {
-      String path = request.getPath();
-      if (path == null || request.getMethod() == null) {
-        return new MockResponse().setResponseCode(HttpURLConnection.HTTP_NOT_FOUND);
-      } else if (path.equals("/") && request.getMethod().equalsIgnoreCase("HEAD")) {
-        return new MockResponse().setResponseCode(HttpURLConnection.HTTP_OK);
-      } else if (path.startsWith("/summary/")) {
-        return getSummary(path.replaceFirst("/summary/", ""));
-      } else if (path.startsWith("/course/")) {
-        return getCourse(path.replaceFirst("/course/", ""));
-      } else if (path.startsWith("/rating/")) {
-        return getOrPostRating(request);
-      }
-      return new MockResponse().setResponseCode(HttpURLConnection.HTTP_NOT_FOUND);
+      return router.dispatch(request);
     } catch (Exception e) {
       return new MockResponse().setResponseCode(HttpURLConnection.HTTP_INTERNAL_ERROR);
     }
   }
 
   private static boolean started = false;
+  // Released once the server is accepting connections, so an in-process client need not poll
+  private static final CountDownLatch READY = new CountDownLatch(1);
 
   /**
    * Start the server if has not already been started.
@@ -144,21 +284,68 @@ public final class Server extends Dispatcher {
    * interfere with the rest of the app.
    */
   public static void start() {
+    start(null);
+  }
+
+  /**
+   * Start the server if has not already been started, serving terms from a catalog directory.
+   *
+   * <p>Terms found in the directory as YEAR_SEMESTER.json and YEAR_SEMESTER_summary.json take
+   * precedence over the ones bundled with the app. Either way they are only loaded on request.
+   *
+   * @param catalogDirectory directory holding additional term files, or null to use only the
+   *     bundled terms
+   */
+  public static void start(@Nullable final File catalogDirectory) {
+    start(catalogDirectory, null);
+  }
+
+  /**
+   * Start the server if has not already been started, keeping ratings durable in a data directory.
+   *
+   * <p>Every accepted rating is written to a log in the data directory before the request
+   * completes, and the ratings in it are restored when the server starts again.
+   *
+   * @param catalogDirectory directory holding additional term files, or null to use only the
+   *     bundled terms
+   * @param dataDirectory directory for the rating log, or null to keep ratings only in memory
+   */
+  public static void start(
+      @Nullable final File catalogDirectory, @Nullable final File dataDirectory) {
     if (!started) {
-      new Thread(Server::new).start();
+      new Thread(() -> new Server(catalogDirectory, dataDirectory)).start();
       started = true;
     }
   }
 
+  /**
+   * Wait for a server started in this process to begin accepting connections.
+   *
+   * @param timeout the longest time to wait
+   * @param unit the unit of the timeout
+   * @return true if the server is ready, false if the wait timed out
+   * @throws InterruptedException if the calling thread is interrupted while waiting
+   */
+  static boolean awaitReady(final long timeout, @NonNull final TimeUnit unit)
+      throws InterruptedException {
+    return READY.await(timeout, unit);
+  }
+
+  // Loaded terms are evicted, least recently used first, once they hold more than this
+  private static final long CATALOG_MEMORY_BUDGET = 16L * 1024 * 1024;
+
   private final ObjectMapper mapper = new ObjectMapper();
 
-  private Server() {
+  private Server(@Nullable final File catalogDirectory, @Nullable final File dataDirectory) {
     mapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
-
-    loadSummary("2020", "fall");
-    loadCourses("2020", "fall");
+    catalog = new TermCatalog(mapper, catalogDirectory, CATALOG_MEMORY_BUDGET);
+    addRoutes();
 
     try {
+      if (dataDirectory != null) {
+        ratings.attach(RatingLog.open(dataDirectory, ratings));
+      }
+
       MockWebServer server = new MockWebServer();
       server.setDispatcher(this);
       server.start(CourseableApplication.SERVER_PORT);
@@ -167,34 +354,9 @@ public final class Server extends Dispatcher {
       if (!CourseableApplication.SERVER_URL.equals(baseUrl)) {
         throw new IllegalStateException("Bad server URL: " + baseUrl);
       }
+      READY.countDown();
     } catch (IOException e) {
       throw new IllegalStateException(e.getMessage());
     }
   }
-
-  @SuppressWarnings("SameParameterValue")
-  private void loadSummary(@NonNull final String year, @NonNull final String semester) {
-    String filename = "/" + year + "_" + semester + "_summary.json";
-    String json =
-        new Scanner(Server.class.getResourceAsStream(filename), "UTF-8").useDelimiter("\\A").next();
-    summaries.put(year + "_" + semester, json);
-  }
-
-  @SuppressWarnings("SameParameterValue")
-  private void loadCourses(@NonNull final String year, @NonNull final String semester) {
-    String filename = "/" + year + "_" + semester + ".json";
-    String json =
-        new Scanner(Server.class.getResourceAsStream(filename), "UTF-8").useDelimiter("\\A").next();
-    try {
-      JsonNode nodes = mapper.readTree(json);
-      for (Iterator<JsonNode> it = nodes.elements(); it.hasNext(); ) {
-        JsonNode node = it.next();
-        Summary course = mapper.readValue(node.toString(), Summary.class);
-        courses.put(course, node.toPrettyString());
-        ratings.put(course, new HashMap<>());
-      }
-    } catch (JsonProcessingException e) {
-      throw new IllegalStateException(e);
-    }
-  }
 }
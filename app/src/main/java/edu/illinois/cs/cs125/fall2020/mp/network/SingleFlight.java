@@ -0,0 +1,162 @@
+package edu.illinois.cs.cs125.fall2020.mp.network;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import com.android.volley.Request;
+import com.android.volley.Response;
+import com.android.volley.VolleyError;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Coalesces identical requests that are in flight at the same time.
+ *
+ * <p>The first caller for a key issues the request; later callers for the same key only register a
+ * listener. When the request completes, its single parsed result or error is handed to every
+ * listener, and the next call for the key starts a new request. If every listener leaves before
+ * then, the request is cancelled.
+ *
+ * @param <T> type of the shared result
+ */
+final class SingleFlight<T> {
+  /** Listeners registered by one caller. */
+  private static final class Waiter<T> {
+    private final Response.Listener<T> listener;
+    private final Response.ErrorListener errorListener;
+
+    private Waiter(
+        @NonNull final Response.Listener<T> setListener,
+        @Nullable final Response.ErrorListener setErrorListener) {
+      listener = setListener;
+      errorListener = setErrorListener;
+    }
+  }
+
+  /**
+   * One in-flight request and the callers waiting on it.
+   *
+   * @param <T> type of the shared result
+   */
+  static final class Call<T> {
+    private final String key;
+    private final List<Waiter<T>> waiters = new ArrayList<>();
+    private Request<?> request;
+
+    private Call(@NonNull final String setKey) {
+      key = setKey;
+    }
+  }
+
+  private final Map<String, Call<T>> calls = new HashMap<>();
+
+  /**
+   * Register interest in the result for a key.
+   *
+   * @param key identifies the request, normally its URL
+   * @param listener receives the result when the request completes
+   * @param errorListener receives the error if the request fails, or null to ignore errors
+   * @return a new call that the caller must {@link #start} and then complete or fail, or null if a
+   *     request for the key is already in flight
+   */
+  @Nullable
+  synchronized Call<T> join(
+      @NonNull final String key,
+      @NonNull final Response.Listener<T> listener,
+      @Nullable final Response.ErrorListener errorListener) {
+    Waiter<T> waiter = new Waiter<>(listener, errorListener);
+    Call<T> call = calls.get(key);
+    if (call != null) {
+      call.waiters.add(waiter);
+      return null;
+    }
+    call = new Call<>(key);
+    call.waiters.add(waiter);
+    calls.put(key, call);
+    return call;
+  }
+
+  /**
+   * Record the request issued for a call, so it can be cancelled if every caller leaves.
+   *
+   * @param call the call the request was issued for
+   * @param request the request
+   */
+  synchronized void start(@NonNull final Call<T> call, @NonNull final Request<?> request) {
+    call.request = request;
+  }
+
+  /**
+   * Withdraw a listener from the request in flight for a key. Cancels the request if no listeners
+   * remain.
+   *
+   * @param key identifies the request
+   * @param listener the listener passed to {@link #join}
+   */
+  void leave(@NonNull final String key, @NonNull final Response.Listener<T> listener) {
+    Request<?> cancel = null;
+    synchronized (this) {
+      Call<T> call = calls.get(key);
+      if (call == null) {
+        return;
+      }
+      for (int i = 0; i < call.waiters.size(); i++) {
+        if (call.waiters.get(i).listener == listener) {
+          call.waiters.remove(i);
+          break;
+        }
+      }
+      if (call.waiters.isEmpty()) {
+        calls.remove(key);
+        cancel = call.request;
+      }
+    }
+    if (cancel != null) {
+      cancel.cancel();
+    }
+  }
+
+  /**
+   * Deliver a result to everyone waiting on a call.
+   *
+   * @param call the call that completed
+   * @param result the result to deliver
+   */
+  void complete(@NonNull final Call<T> call, final T result) {
+    for (Waiter<T> waiter : finish(call)) {
+      waiter.listener.onResponse(result);
+    }
+  }
+
+  /**
+   * Deliver an error to everyone waiting on a call.
+   *
+   * @param call the call that failed
+   * @param error the error to deliver
+   */
+  void fail(@NonNull final Call<T> call, @NonNull final VolleyError error) {
+    for (Waiter<T> waiter : finish(call)) {
+      if (waiter.errorListener != null) {
+        waiter.errorListener.onErrorResponse(error);
+      }
+    }
+  }
+
+  private synchronized List<Waiter<T>> finish(@NonNull final Call<T> call) {
+    calls.remove(call.key, call);
+    List<Waiter<T>> waiters = new ArrayList<>(call.waiters);
+    call.waiters.clear();
+    return waiters;
+  }
+
+  /**
+   * Stop sharing the request in flight for a key, if any, because its result is known to be stale.
+   * Its current listeners still receive it, but later callers start a new request.
+   *
+   * @param key identifies the request
+   */
+  synchronized void forget(@NonNull final String key) {
+    calls.remove(key);
+  }
+}
@@ -0,0 +1,296 @@
+package edu.illinois.cs.cs125.fall2020.mp.network;
+
+import androidx.annotation.NonNull;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import edu.illinois.cs.cs125.fall2020.mp.models.CourseKey;
+import edu.illinois.cs.cs125.fall2020.mp.models.Summary;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Catalog data for a single year and semester, ready to be served.
+ *
+ * <p>Terms are immutable once loaded, so they can be read from any server thread without locking.
+ */
+final class Term {
+  private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+  private static final String SECTION_TEXT = "sectionText";
+
+  private final String year;
+  private final String semester;
+  private final PreparedBody summary;
+  private final Map<CourseKey, PreparedBody> courses;
+  private final SearchIndex searchIndex;
+  private final long size;
+
+  private Term(
+      @NonNull final String setYear,
+      @NonNull final String setSemester,
+      @NonNull final PreparedBody setSummary,
+      @NonNull final Map<CourseKey, PreparedBody> setCourses,
+      @NonNull final SearchIndex setSearchIndex) {
+    year = setYear;
+    semester = setSemester;
+    summary = setSummary;
+    courses = setCourses;
+    searchIndex = setSearchIndex;
+
+    long total = summary.size() + searchIndex.size();
+    for (PreparedBody course : courses.values()) {
+      total += course.size();
+    }
+    size = total;
+  }
+
+  /**
+   * Load a term from its summary and course JSON.
+   *
+   * <p>The summary list is read as a tree and sorted into display order. The course document is
+   * streamed through Jackson's {@link JsonParser} in a single pass. Each course object is copied
+   * token by token into a compact byte buffer while its key fields and searchable text are picked
+   * out along the way, so no tree is built and only one course is held in flight.
+   *
+   * @param mapper the mapper whose factory is used to parse and encode JSON
+   * @param year the year of the term
+   * @param semester the semester of the term
+   * @param summaryInput stream of the YEAR_SEMESTER_summary.json document
+   * @param coursesInput stream of the YEAR_SEMESTER.json document
+   * @return the loaded term
+   * @throws IOException if either document cannot be read or parsed
+   */
+  static Term load(
+      @NonNull final ObjectMapper mapper,
+      @NonNull final String year,
+      @NonNull final String semester,
+      @NonNull final InputStream summaryInput,
+      @NonNull final InputStream coursesInput)
+      throws IOException {
+    JsonFactory factory = mapper.getFactory();
+    ByteArrayOutputStream buffer = new ByteArrayOutputStream(INITIAL_BUFFER_SIZE);
+
+    PreparedBody summary;
+    try (JsonParser parser = factory.createParser(summaryInput)) {
+      if (parser.nextToken() == null) {
+        throw new JsonParseException(parser, "Empty summary document");
+      }
+      JsonNode summaries = sortSummaries(mapper.readTree(parser));
+      try (JsonGenerator generator = factory.createGenerator(buffer)) {
+        mapper.writeTree(generator, summaries);
+      }
+      summary = new PreparedBody(buffer.toByteArray());
+    }
+
+    // Keys are interned so request paths naming these courses resolve without allocating
+    Map<CourseKey, PreparedBody> courses = new HashMap<>();
+    SearchIndex.Builder searchIndex = new SearchIndex.Builder();
+    try (JsonParser parser = factory.createParser(coursesInput)) {
+      if (parser.nextToken() != JsonToken.START_ARRAY) {
+        throw new JsonParseException(parser, "Expected an array of courses");
+      }
+      while (parser.nextToken() == JsonToken.START_OBJECT) {
+        buffer.reset();
+        Summary course = copyCourse(parser, factory, buffer, searchIndex);
+        courses.put(CourseKey.of(course).intern(), new PreparedBody(buffer.toByteArray()));
+      }
+      if (parser.currentToken() != JsonToken.END_ARRAY) {
+        throw new JsonParseException(parser, "Expected a course object");
+      }
+    }
+    return new Term(year, semester, summary, courses, searchIndex.build());
+  }
+
+  /*
+   * Put a summary array into display order, so clients sort it in a single pass. Each entry's
+   * collation key is built once, and entries missing a key field keep their place at the front.
+   */
+  private static JsonNode sortSummaries(@NonNull final JsonNode summaries) {
+    if (!summaries.isArray()) {
+      return summaries;
+    }
+    List<Map.Entry<String, JsonNode>> keyed = new ArrayList<>(summaries.size());
+    for (JsonNode entry : summaries) {
+      JsonNode department = entry.get("department");
+      JsonNode number = entry.get("number");
+      JsonNode title = entry.get("title");
+      String key = "";
+      if (department != null && number != null && title != null) {
+        key = Summary.collationKey(department.asText(), number.asText(), title.asText());
+      }
+      keyed.add(new AbstractMap.SimpleImmutableEntry<>(key, entry));
+    }
+    // Stable, so courses that compare equal keep their order in the document
+    Collections.sort(keyed, (first, second) -> first.getKey().compareTo(second.getKey()));
+    ArrayNode sorted = JsonNodeFactory.instance.arrayNode(keyed.size());
+    for (Map.Entry<String, JsonNode> entry : keyed) {
+      sorted.add(entry.getValue());
+    }
+    return sorted;
+  }
+
+  /*
+   * Copy one course object, positioned on its START_OBJECT, into the output while extracting the
+   * top-level fields that identify it and adding its text to the search index. Leaves the parser
+   * on the matching END_OBJECT.
+   */
+  private static Summary copyCourse(
+      @NonNull final JsonParser parser,
+      @NonNull final JsonFactory factory,
+      @NonNull final ByteArrayOutputStream output,
+      @NonNull final SearchIndex.Builder searchIndex)
+      throws IOException {
+    String courseYear = null;
+    String courseSemester = null;
+    String department = null;
+    String number = null;
+    String title = null;
+    String description = null;
+    // Sections of a course often repeat the same text, which should only be counted once
+    Set<String> sectionText = new LinkedHashSet<>();
+    try (JsonGenerator generator = factory.createGenerator(output)) {
+      generator.writeStartObject();
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        String name = parser.getCurrentName();
+        JsonToken value = parser.nextToken();
+        generator.writeFieldName(name);
+        if (value == JsonToken.VALUE_STRING) {
+          String text = parser.getText();
+          generator.writeString(text);
+          switch (name) {
+            case "year":
+              courseYear = text;
+              break;
+            case "semester":
+              courseSemester = text;
+              break;
+            case "department":
+              department = text;
+              break;
+            case "number":
+              number = text;
+              break;
+            case "title":
+              title = text;
+              break;
+            case "description":
+              description = text;
+              break;
+            default:
+              break;
+          }
+        } else {
+          copyValue(parser, generator, sectionText);
+        }
+      }
+      generator.writeEndObject();
+    }
+    Summary course = new Summary(courseYear, courseSemester, department, number, title);
+
+    List<String> body = new ArrayList<>();
+    if (description != null) {
+      body.add(description);
+    }
+    body.addAll(sectionText);
+    searchIndex.add(course, department + " " + number + " " + title, body);
+    return course;
+  }
+
+  // Copy the value the parser is positioned on, collecting any section text nested inside it
+  private static void copyValue(
+      @NonNull final JsonParser parser,
+      @NonNull final JsonGenerator generator,
+      @NonNull final Set<String> sectionText)
+      throws IOException {
+    int depth = 0;
+    JsonToken token = parser.currentToken();
+    while (true) {
+      if (token == JsonToken.VALUE_STRING && SECTION_TEXT.equals(parser.getCurrentName())) {
+        sectionText.add(parser.getText());
+      }
+      generator.copyCurrentEvent(parser);
+      if (token.isStructStart()) {
+        depth++;
+      } else if (token.isStructEnd()) {
+        depth--;
+      }
+      if (depth == 0) {
+        return;
+      }
+      token = parser.nextToken();
+      if (token == null) {
+        throw new JsonParseException(parser, "Unexpected end of course");
+      }
+    }
+  }
+
+  /**
+   * Get the year of this term.
+   *
+   * @return the year
+   */
+  String getYear() {
+    return year;
+  }
+
+  /**
+   * Get the semester of this term.
+   *
+   * @return the semester
+   */
+  String getSemester() {
+    return semester;
+  }
+
+  /**
+   * Get the summary list for this term.
+   *
+   * @return the prepared summary list body
+   */
+  PreparedBody getSummary() {
+    return summary;
+  }
+
+  /**
+   * Get the details of a course offered in this term.
+   *
+   * @param course the course to look up
+   * @return the prepared course body, or null if the course is not offered
+   */
+  PreparedBody getCourse(@NonNull final CourseKey course) {
+    return courses.get(course);
+  }
+
+  /**
+   * Get the full-text index of the courses offered in this term.
+   *
+   * @return the search index
+   */
+  SearchIndex getSearchIndex() {
+    return searchIndex;
+  }
+
+  /**
+   * Get the approximate memory held by this term's response bodies.
+   *
+   * @return the size in bytes
+   */
+  long size() {
+    return size;
+  }
+}
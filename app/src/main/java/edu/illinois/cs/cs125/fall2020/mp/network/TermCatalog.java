@@ -0,0 +1,194 @@
+package edu.illinois.cs.cs125.fall2020.mp.network;
+
+import android.util.Log;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Registry of every term the server can serve.
+ *
+ * <p>A term is a pair of YEAR_SEMESTER.json and YEAR_SEMESTER_summary.json documents, found either
+ * in a configured catalog directory or among the app's bundled resources. Nothing is read at
+ * startup: a term is loaded the first time it is requested, and the least recently used terms are
+ * evicted whenever the loaded terms exceed a memory budget. Evicted terms are simply reloaded on
+ * their next request.
+ *
+ * <p>Terms without files are remembered as missing, so repeated requests for them skip the file
+ * system. Terms whose files exist but fail to load are not, and are loaded again when next
+ * requested.
+ */
+final class TermCatalog {
+  private static final String TAG = TermCatalog.class.getSimpleName();
+  private static final String SUMMARY_SUFFIX = "_summary.json";
+  private static final String COURSES_SUFFIX = ".json";
+  private static final int MAX_MISSING = 256;
+
+  /** Loaded term along with its last access time, used for LRU eviction. */
+  private static final class Entry {
+    private final Term term;
+    private volatile long lastAccess;
+
+    private Entry(@NonNull final Term setTerm, final long setLastAccess) {
+      term = setTerm;
+      lastAccess = setLastAccess;
+    }
+  }
+
+  private final ObjectMapper mapper;
+  private final File directory;
+  private final long budget;
+
+  private final Map<String, Entry> loaded = new ConcurrentHashMap<>();
+  private final Map<String, Object> loadLocks = new ConcurrentHashMap<>();
+  private final Set<String> missing = ConcurrentHashMap.newKeySet();
+  private final AtomicLong clock = new AtomicLong();
+  private long loadedSize;
+
+  /**
+   * Create a term catalog.
+   *
+   * @param setMapper the mapper used to parse and encode catalog JSON
+   * @param setDirectory directory searched for term files before the bundled resources, or null
+   * @param setBudget approximate number of bytes loaded terms may hold before eviction
+   */
+  TermCatalog(
+      @NonNull final ObjectMapper setMapper,
+      @Nullable final File setDirectory,
+      final long setBudget) {
+    mapper = setMapper;
+    directory = setDirectory;
+    budget = setBudget;
+  }
+
+  /**
+   * Get a term, loading it if necessary.
+   *
+   * @param year the year of the term
+   * @param semester the semester of the term
+   * @return the term, or null if no such term exists
+   * @throws IOException if the term's files exist but cannot be read or parsed
+   */
+  @Nullable
+  Term get(@NonNull final String year, @NonNull final String semester) throws IOException {
+    String key = key(year, semester);
+    Entry entry = loaded.get(key);
+    if (entry != null) {
+      entry.lastAccess = clock.incrementAndGet();
+      return entry.term;
+    }
+    if (!isValidName(year, semester) || missing.contains(key)) {
+      return null;
+    }
+
+    Object lock = loadLocks.get(key);
+    if (lock == null) {
+      Object newLock = new Object();
+      lock = loadLocks.putIfAbsent(key, newLock);
+      if (lock == null) {
+        lock = newLock;
+      }
+    }
+    // Only one thread loads a given term; the others wait and then find it loaded
+    synchronized (lock) {
+      entry = loaded.get(key);
+      if (entry != null) {
+        entry.lastAccess = clock.incrementAndGet();
+        return entry.term;
+      }
+      Term term = load(year, semester);
+      if (term == null) {
+        if (missing.size() >= MAX_MISSING) {
+          missing.clear();
+        }
+        missing.add(key);
+        return null;
+      }
+      loaded.put(key, new Entry(term, clock.incrementAndGet()));
+      evict(key, term.size());
+      return term;
+    }
+  }
+
+  private static String key(@NonNull final String year, @NonNull final String semester) {
+    return year + "_" + semester;
+  }
+
+  // Names end up in file paths, so only plain digits and letters are accepted
+  private static boolean isValidName(@NonNull final String year, @NonNull final String semester) {
+    if (year.isEmpty() || semester.isEmpty()) {
+      return false;
+    }
+    for (int i = 0; i < year.length(); i++) {
+      if (!Character.isDigit(year.charAt(i))) {
+        return false;
+      }
+    }
+    for (int i = 0; i < semester.length(); i++) {
+      if (!Character.isLetter(semester.charAt(i))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  // Null if either file does not exist
+  @Nullable
+  private Term load(@NonNull final String year, @NonNull final String semester)
+      throws IOException {
+    String key = key(year, semester);
+    try (InputStream summary = open(key + SUMMARY_SUFFIX);
+        InputStream courses = open(key + COURSES_SUFFIX)) {
+      if (summary == null || courses == null) {
+        return null;
+      }
+      return Term.load(mapper, year, semester, summary, courses);
+    } catch (IOException e) {
+      Log.e(TAG, "Failed to load term " + key + ": " + e);
+      throw e;
+    }
+  }
+
+  @Nullable
+  private InputStream open(@NonNull final String filename) throws IOException {
+    if (directory != null) {
+      File file = new File(directory, filename);
+      if (file.isFile()) {
+        return new FileInputStream(file);
+      }
+    }
+    return TermCatalog.class.getResourceAsStream("/" + filename);
+  }
+
+  // Drop least recently used terms until we are back under budget, keeping the one just loaded
+  private synchronized void evict(@NonNull final String keep, final long added) {
+    loadedSize += added;
+    while (loadedSize > budget && loaded.size() > 1) {
+      String eldest = null;
+      Entry eldestEntry = null;
+      for (Map.Entry<String, Entry> candidate : loaded.entrySet()) {
+        if (candidate.getKey().equals(keep)) {
+          continue;
+        }
+        if (eldestEntry == null || candidate.getValue().lastAccess < eldestEntry.lastAccess) {
+          eldest = candidate.getKey();
+          eldestEntry = candidate.getValue();
+        }
+      }
+      if (eldest == null) {
+        return;
+      }
+      loaded.remove(eldest);
+      loadedSize -= eldestEntry.term.size();
+      Log.i(TAG, "Evicted term " + eldest);
+    }
+  }
+}
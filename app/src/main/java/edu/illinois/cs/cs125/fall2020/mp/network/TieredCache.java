@@ -0,0 +1,167 @@
+package edu.illinois.cs.cs125.fall2020.mp.network;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import com.android.volley.Cache;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Volley response cache with a memory tier in front of an optional disk tier.
+ *
+ * <p>Recent responses are kept in memory in least recently used order until their bodies exceed a
+ * byte budget. Every response is also written through to the disk tier, which survives restarts
+ * and has its own size cap, and disk hits are promoted back into memory. How long an entry stays
+ * fresh is decided by the request that stored it, not by this cache.
+ */
+final class TieredCache implements Cache {
+  private static final int INITIAL_CAPACITY = 16;
+  private static final float LOAD_FACTOR = 0.75f;
+
+  private final long memoryBudget;
+  private final Cache disk;
+
+  // Guarded by this
+  private final LinkedHashMap<String, Entry> memory =
+      new LinkedHashMap<>(INITIAL_CAPACITY, LOAD_FACTOR, true);
+  private long memorySize;
+
+  private final AtomicLong memoryHits = new AtomicLong();
+  private final AtomicLong diskHits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+
+  /**
+   * Create a tiered cache.
+   *
+   * @param setMemoryBudget number of response body bytes to keep in memory
+   * @param setDisk the disk tier, or null to cache only in memory
+   */
+  TieredCache(final long setMemoryBudget, @Nullable final Cache setDisk) {
+    memoryBudget = setMemoryBudget;
+    disk = setDisk;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public Entry get(final String key) {
+    synchronized (this) {
+      Entry entry = memory.get(key);
+      if (entry != null) {
+        memoryHits.incrementAndGet();
+        return entry;
+      }
+    }
+    if (disk != null) {
+      Entry entry = disk.get(key);
+      if (entry != null) {
+        diskHits.incrementAndGet();
+        putMemory(key, entry);
+        return entry;
+      }
+    }
+    misses.incrementAndGet();
+    return null;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void put(final String key, final Entry entry) {
+    putMemory(key, entry);
+    if (disk != null) {
+      disk.put(key, entry);
+    }
+  }
+
+  private synchronized void putMemory(@NonNull final String key, @NonNull final Entry entry) {
+    Entry previous = memory.put(key, entry);
+    if (previous != null) {
+      memorySize -= previous.data.length;
+    }
+    memorySize += entry.data.length;
+    Iterator<Map.Entry<String, Entry>> eldest = memory.entrySet().iterator();
+    while (memorySize > memoryBudget && eldest.hasNext()) {
+      memorySize -= eldest.next().getValue().data.length;
+      eldest.remove();
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void initialize() {
+    if (disk != null) {
+      disk.initialize();
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void invalidate(final String key, final boolean fullExpire) {
+    synchronized (this) {
+      Entry entry = memory.get(key);
+      if (entry != null) {
+        entry.softTtl = 0;
+        if (fullExpire) {
+          entry.ttl = 0;
+        }
+      }
+    }
+    if (disk != null) {
+      disk.invalidate(key, fullExpire);
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void remove(final String key) {
+    synchronized (this) {
+      Entry entry = memory.remove(key);
+      if (entry != null) {
+        memorySize -= entry.data.length;
+      }
+    }
+    if (disk != null) {
+      disk.remove(key);
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void clear() {
+    synchronized (this) {
+      memory.clear();
+      memorySize = 0;
+    }
+    if (disk != null) {
+      disk.clear();
+    }
+  }
+
+  /**
+   * Get the number of lookups answered from memory.
+   *
+   * @return the memory hit count
+   */
+  long getMemoryHits() {
+    return memoryHits.get();
+  }
+
+  /**
+   * Get the number of lookups answered from disk.
+   *
+   * @return the disk hit count
+   */
+  long getDiskHits() {
+    return diskHits.get();
+  }
+
+  /**
+   * Get the number of lookups that found nothing.
+   *
+   * @return the miss count
+   */
+  long getMisses() {
+    return misses.get();
+  }
+}
@@ -0,0 +1,86 @@
+package edu.illinois.cs.cs125.fall2020.mp.network;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Validators of recent conditional responses, keyed by URL.
+ *
+ * <p>Each validator holds a parsed response, which is usually larger than the body it came from,
+ * so like the response cache's memory tier they are kept in least recently used order until the
+ * bodies they were parsed from exceed a byte budget. A URL whose validator was evicted is simply
+ * fetched and parsed again in full.
+ */
+final class Validators {
+  private static final int INITIAL_CAPACITY = 16;
+  private static final float LOAD_FACTOR = 0.75f;
+
+  private final long budget;
+
+  // Guarded by this
+  private final LinkedHashMap<String, ConditionalRequest.Validator> validators =
+      new LinkedHashMap<>(INITIAL_CAPACITY, LOAD_FACTOR, true);
+  private long size;
+
+  /**
+   * Create an empty set of validators.
+   *
+   * @param setBudget number of response body bytes whose validators to keep
+   */
+  Validators(final long setBudget) {
+    budget = setBudget;
+  }
+
+  /**
+   * Get the validator for a URL, marking it recently used.
+   *
+   * @param url the URL
+   * @return the validator, or null if there is none
+   */
+  @Nullable
+  synchronized ConditionalRequest.Validator get(@NonNull final String url) {
+    return validators.get(url);
+  }
+
+  /**
+   * Set the validator for a URL, evicting the least recently used ones if over budget.
+   *
+   * @param url the URL
+   * @param validator the validator
+   */
+  synchronized void put(
+      @NonNull final String url, @NonNull final ConditionalRequest.Validator validator) {
+    ConditionalRequest.Validator previous = validators.put(url, validator);
+    if (previous != null) {
+      size -= previous.getSize();
+    }
+    size += validator.getSize();
+    Iterator<Map.Entry<String, ConditionalRequest.Validator>> eldest =
+        validators.entrySet().iterator();
+    while (size > budget && eldest.hasNext()) {
+      size -= eldest.next().getValue().getSize();
+      eldest.remove();
+    }
+  }
+
+  /**
+   * Set the validator for a URL unless it already has one.
+   *
+   * @param url the URL
+   * @param validator the validator
+   * @return the existing validator, or null if the given one was added
+   */
+  @Nullable
+  synchronized ConditionalRequest.Validator putIfAbsent(
+      @NonNull final String url, @NonNull final ConditionalRequest.Validator validator) {
+    ConditionalRequest.Validator existing = validators.get(url);
+    if (existing != null) {
+      return existing;
+    }
+    put(url, validator);
+    return null;
+  }
+}
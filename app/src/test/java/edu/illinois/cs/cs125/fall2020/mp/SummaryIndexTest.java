@@ -0,0 +1,326 @@
+package edu.illinois.cs.cs125.fall2020.mp;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import edu.illinois.cs.cs125.fall2020.mp.models.Summary;
+import edu.illinois.cs.cs125.fall2020.mp.models.SummaryIndex;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/*
+ * Tests for the course summary index. Filtering, on its own or through a session fed the queries a
+ * user types and deletes, must return exactly what Summary.filter returns, in the same order, and
+ * fuzzy search is compared against a brute-force edit distance over every
+ * summary, on the real course list and on a larger synthetic one.
+ */
+public final class SummaryIndexTest {
+  private static final int SYNTHETIC_COURSES = 2000;
+  private static final int TYPO_QUERIES = 200;
+
+  private static final ObjectMapper mapper = new ObjectMapper();
+  private static List<Summary> summaries;
+
+  @BeforeClass
+  public static void setup() throws IOException {
+    mapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+    summaries =
+        Arrays.asList(
+            mapper.readValue(
+                SummaryIndexTest.class.getResourceAsStream("/2020_fall_summary.json"),
+                Summary[].class));
+  }
+
+  private static String name(final Summary summary) {
+    return summary.getDepartment() + " " + summary.getNumber() + ": " + summary.getTitle();
+  }
+
+  private static String compact(final String text) {
+    StringBuilder compacted = new StringBuilder();
+    for (char c : text.toCharArray()) {
+      if (Character.isLetterOrDigit(c)) {
+        compacted.append(Character.toLowerCase(c));
+      }
+    }
+    return compacted.toString();
+  }
+
+  // Fewest edits turning the query into any substring of the text, over the whole table
+  private static int bruteForceDistance(final String query, final String text) {
+    int[] column = new int[query.length() + 1];
+    for (int q = 0; q < column.length; q++) {
+      column[q] = q;
+    }
+    int best = column[query.length()];
+    for (int t = 0; t < text.length(); t++) {
+      int diagonal = column[0];
+      for (int q = 1; q < column.length; q++) {
+        int above = column[q];
+        int substitute = diagonal + 1;
+        if (query.charAt(q - 1) == text.charAt(t)) {
+          substitute = diagonal;
+        }
+        column[q] = Math.min(substitute, Math.min(above, column[q - 1]) + 1);
+        diagonal = above;
+      }
+      best = Math.min(best, column[query.length()]);
+    }
+    return best;
+  }
+
+  // Every piece of every name up to the given length, plus the same pieces in other cases
+  private static List<String> pieces(final List<Summary> courses, final int longest) {
+    Set<String> pieces = new HashSet<>();
+    for (Summary course : courses) {
+      String name = name(course);
+      for (int start = 0; start < name.length(); start++) {
+        for (int end = start + 1; end <= Math.min(name.length(), start + longest); end++) {
+          String piece = name.substring(start, end);
+          pieces.add(piece);
+          pieces.add(piece.toUpperCase());
+          pieces.add(piece.toLowerCase());
+        }
+      }
+    }
+    return new ArrayList<>(pieces);
+  }
+
+  private static void checkFilter(final SummaryIndex index, final String query) {
+    assertThat(index.filter(query))
+        .containsExactlyElementsIn(Summary.filter(summaries, query))
+        .inOrder();
+  }
+
+  @Test(timeout = 10000L)
+  public void testFilterMatchesSummaryFilter() {
+    SummaryIndex index = new SummaryIndex(summaries);
+    for (String query : pieces(summaries, 6)) {
+      checkFilter(index, query);
+    }
+    // Pieces of names that match nothing, and queries spanning whole names
+    for (String query : Arrays.asList("xyz", "cs 1255", "125: intro", "CS 125: INTRODUCTION")) {
+      checkFilter(index, query);
+    }
+  }
+
+  @Test(timeout = 1000L)
+  public void testFilterShortQueries() {
+    SummaryIndex index = new SummaryIndex(summaries);
+    // Below three characters there are no trigrams to look up, so the names are scanned
+    for (String query : Arrays.asList("", "c", "C", "cs", "Cs", "1", "12", ":", ": ", " ", "q")) {
+      checkFilter(index, query);
+    }
+    assertThat(index.filter("")).containsExactlyElementsIn(summaries).inOrder();
+  }
+
+  @Test(timeout = 1000L)
+  public void testFilterCaseAndWhitespace() {
+    SummaryIndex index = new SummaryIndex(summaries);
+    assertThat(index.filter("CS 125")).hasSize(1);
+    for (String query :
+        Arrays.asList("cs 125", "Cs 125", "CS125", "cs  125", " 125", "125 ", "  ", "   ", "\t")) {
+      checkFilter(index, query);
+    }
+    // Names are matched as built, so the colon and the space after it are part of them
+    assertThat(index.filter("125: ")).hasSize(1);
+    assertThat(index.filter("125 :")).isEmpty();
+  }
+
+  @Test(timeout = 1000L)
+  public void testFilterEmptyCatalog() {
+    SummaryIndex index = new SummaryIndex(new ArrayList<>());
+    assertThat(index.size()).isEqualTo(0);
+    assertThat(index.filter("")).isEmpty();
+    assertThat(index.filter("cs")).isEmpty();
+    assertThat(index.filter("cs 125")).isEmpty();
+  }
+
+  // Feed the session each query in turn, as the search box would
+  private static void checkSession(final SummaryIndex.Session session, final String... queries) {
+    for (String query : queries) {
+      assertThat(session.filter(query))
+          .containsExactlyElementsIn(Summary.filter(summaries, query))
+          .inOrder();
+    }
+  }
+
+  @Test(timeout = 1000L)
+  public void testSessionTypingAndDeleting() {
+    SummaryIndex.Session session = new SummaryIndex(summaries).session();
+    String name = name(summaries.get(0));
+    // Type a whole name, delete it again, then type a different one
+    for (int length = 0; length <= name.length(); length++) {
+      checkSession(session, name.substring(0, length));
+    }
+    for (int length = name.length(); length >= 0; length--) {
+      checkSession(session, name.substring(0, length));
+    }
+    assertThat(session.filter("")).containsExactlyElementsIn(summaries).inOrder();
+    checkSession(session, "i", "in", "int", "intr", "intro");
+  }
+
+  @Test(timeout = 1000L)
+  public void testSessionWidensAfterDeletion() {
+    SummaryIndex.Session session = new SummaryIndex(summaries).session();
+    assertThat(session.filter("cs 125")).hasSize(1);
+    // Dropping a character anywhere must bring back matches the longer query excluded
+    checkSession(session, "cs 12", "cs 1", "cs 125", "s 125", "s 12", "cs 12", "125", "cs 125");
+    checkSession(session, "Super Boring Course", "Super Boring", "super", "s", "");
+    // Replacing the query with one that does not contain it starts over
+    checkSession(session, "data", "intro", "xyz", "x", "algorithms");
+  }
+
+  @Test(timeout = 1000L)
+  public void testSessionCaseAndWhitespace() {
+    SummaryIndex.Session session = new SummaryIndex(summaries).session();
+    // Changing case or adding characters before the previous query still narrows it
+    checkSession(session, "125", "CS 125", "cs 125", "Cs 125:", " cs 125: ", "cs 125:  ");
+    checkSession(session, " ", "  ", " ", "", "  data", " data", "DATA ", "data");
+    checkSession(session, "", "", "c", "", "cs");
+  }
+
+  @Test(timeout = 1000L)
+  public void testSessionsAreIndependent() {
+    SummaryIndex index = new SummaryIndex(summaries);
+    SummaryIndex.Session first = index.session();
+    SummaryIndex.Session second = index.session();
+    checkSession(first, "c", "cs", "cs 1", "cs 12");
+    checkSession(second, "data", "data ");
+    checkSession(first, "cs 125");
+    checkSession(second, "d", "");
+  }
+
+  private static Set<String> trigrams(final String text) {
+    Set<String> grams = new HashSet<>();
+    for (int start = 0; start + 3 <= text.length(); start++) {
+      grams.add(text.substring(start, start + 3));
+    }
+    return grams;
+  }
+
+  // Prefixes of pieces of random names, each with one character dropped or replaced
+  private static List<String> typoQueries(final List<Summary> courses, final Random random) {
+    List<String> queries = new ArrayList<>();
+    for (int i = 0; i < TYPO_QUERIES; i++) {
+      String name = name(courses.get(random.nextInt(courses.size())));
+      int start = random.nextInt(name.length() - 4);
+      StringBuilder query =
+          new StringBuilder(
+              name.substring(start, Math.min(name.length(), start + 3 + random.nextInt(12))));
+      int position = random.nextInt(query.length());
+      if (random.nextBoolean()) {
+        query.deleteCharAt(position);
+      } else {
+        query.setCharAt(position, (char) ('a' + random.nextInt(26)));
+      }
+      for (int length = 1; length <= query.length(); length++) {
+        queries.add(query.substring(0, length));
+      }
+    }
+    return queries;
+  }
+
+  /*
+   * Every summary fuzzy search returns must be at the distance it reports, and every summary within
+   * the allowed edits must be returned unless it shares no trigram with the query, which is the one
+   * case the index skips by design.
+   */
+  private static void checkAgainstBruteForce(
+      final List<Summary> courses, final List<String> queries) {
+    SummaryIndex index = new SummaryIndex(courses);
+    String[] names = new String[courses.size()];
+    for (int i = 0; i < names.length; i++) {
+      names[i] = compact(name(courses.get(i)));
+    }
+    for (String text : queries) {
+      String query = compact(text);
+      if (query.length() < 3) {
+        continue;
+      }
+      int edits = Math.min(2, query.length() / 4);
+      Set<String> grams = trigrams(query);
+      Map<Summary, Integer> found = new IdentityHashMap<>();
+      int previous = 0;
+      for (SummaryIndex.Match match : index.fuzzy(text)) {
+        assertThat(match.getDistance()).isAtLeast(previous);
+        previous = match.getDistance();
+        found.put(match.getSummary(), match.getDistance());
+      }
+      for (int i = 0; i < names.length; i++) {
+        int distance = bruteForceDistance(query, names[i]);
+        Integer reported = found.get(courses.get(i));
+        if (reported != null) {
+          assertThat(reported).isEqualTo(distance);
+        } else if (distance <= edits) {
+          Set<String> shared = trigrams(names[i]);
+          shared.retainAll(grams);
+          assertThat(shared).isEmpty();
+        }
+      }
+    }
+  }
+
+  @Test(timeout = 10000L)
+  public void testFuzzyMatchesBruteForce() {
+    Random random = new Random(125);
+    checkAgainstBruteForce(summaries, typoQueries(summaries, random));
+
+    // More courses than the catalog has, reusing its titles under other names
+    String[] departments = {"CS", "ECE", "MATH", "STAT", "PHYS", "CHEM", "BADM", "ENG"};
+    List<Summary> synthetic = new ArrayList<>();
+    for (int i = 0; i < SYNTHETIC_COURSES; i++) {
+      synthetic.add(
+          new Summary(
+              "2020",
+              "fall",
+              departments[random.nextInt(departments.length)],
+              Integer.toString(100 + random.nextInt(900)),
+              summaries.get(random.nextInt(summaries.size())).getTitle()));
+    }
+    checkAgainstBruteForce(synthetic, typoQueries(synthetic, random));
+  }
+
+  @Test(timeout = 1000L)
+  public void testFuzzyToleratesTypos() {
+    SummaryIndex index = new SummaryIndex(summaries);
+
+    List<SummaryIndex.Match> matches = index.fuzzy("CS 225");
+    assertThat(matches.get(0).getSummary().getNumber()).isEqualTo("225");
+    assertThat(matches.get(0).getDistance()).isEqualTo(0);
+    // Spaces and punctuation are ignored
+    assertThat(index.fuzzy("cs225").get(0).getSummary()).isEqualTo(matches.get(0).getSummary());
+
+    matches = index.fuzzy("datastrctures");
+    assertThat(matches).hasSize(1);
+    assertThat(matches.get(0).getSummary().getNumber()).isEqualTo("225");
+    assertThat(matches.get(0).getDistance()).isEqualTo(1);
+
+    // Queries too far from every course find nothing
+    assertThat(index.fuzzy("Super Boring Course")).isEmpty();
+    assertThat(index.fuzzy("xyz")).isEmpty();
+  }
+
+  @Test(timeout = 1000L)
+  public void testFuzzyShortQueriesMatchExactly() {
+    SummaryIndex index = new SummaryIndex(summaries);
+    List<SummaryIndex.Match> matches = index.fuzzy("cs");
+    assertThat(matches).hasSize(summaries.size());
+    for (SummaryIndex.Match match : matches) {
+      assertThat(match.getDistance()).isEqualTo(0);
+    }
+    // Too short to allow an edit
+    assertThat(index.fuzzy("csx")).isEmpty();
+    assertThat(index.fuzzy("")).hasSize(summaries.size());
+    assertThat(index.fuzzy(" ?! ")).hasSize(summaries.size());
+  }
+}
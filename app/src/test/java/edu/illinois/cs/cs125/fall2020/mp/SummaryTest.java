@@ -0,0 +1,158 @@
+package edu.illinois.cs.cs125.fall2020.mp;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import edu.illinois.cs.cs125.fall2020.mp.models.Summary;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/*
+ * Tests for the summary sort order. Summary.COMPARATOR compares precomputed collation keys, and is
+ * checked against the field-by-field string comparison it replaced. The orders agree for numbers
+ * of the same length; numbers of different lengths now sort by value, and numbers equal in value
+ * are ordered by title before the numbers as written break the tie.
+ */
+public final class SummaryTest {
+  private static final ObjectMapper mapper = new ObjectMapper();
+  private static List<Summary> summaries;
+
+  // The comparator before collation keys: department, number, and title as plain strings
+  private static final Comparator<Summary> STRING_ORDER =
+      (first, second) -> {
+        int department = first.getDepartment().compareTo(second.getDepartment());
+        if (department != 0) {
+          return department;
+        }
+        int number = first.getNumber().compareTo(second.getNumber());
+        if (number != 0) {
+          return number;
+        }
+        return first.getTitle().compareTo(second.getTitle());
+      };
+
+  @BeforeClass
+  public static void setup() throws IOException {
+    mapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+    summaries =
+        Arrays.asList(
+            mapper.readValue(
+                SummaryTest.class.getResourceAsStream("/2020_fall_summary.json"),
+                Summary[].class));
+  }
+
+  private static Summary course(final String department, final String number, final String title) {
+    return new Summary("2020", "fall", department, number, title);
+  }
+
+  private static List<Summary> sorted(
+      final List<Summary> courses, final Comparator<Summary> order) {
+    List<Summary> copy = new ArrayList<>(courses);
+    Collections.sort(copy, order);
+    return copy;
+  }
+
+  // Sign of the comparison, so results can be compared between comparators
+  private static int compare(
+      final Comparator<Summary> order, final Summary first, final Summary second) {
+    return Integer.signum(order.compare(first, second));
+  }
+
+  @Test(timeout = 1000L)
+  public void testCatalogOrderUnchanged() {
+    // Every number in the catalog has the same number of digits, so both orders agree
+    List<Summary> shuffled = new ArrayList<>(summaries);
+    Collections.shuffle(shuffled, new Random(125));
+    assertThat(sorted(shuffled, Summary.COMPARATOR))
+        .containsExactlyElementsIn(sorted(shuffled, STRING_ORDER))
+        .inOrder();
+  }
+
+  // Numbers made only of digits compare by value exactly when they have the same length
+  @Test(timeout = 1000L)
+  public void testAgreesWithStringOrderForSameLengthNumbers() {
+    List<Summary> courses =
+        Arrays.asList(
+            course("CS", "125", "Intro"),
+            course("CS", "125", "Intro Honors"),
+            course("CS", "124", "Intro"),
+            course("CS", "225", "Data Structures"),
+            course("CSE", "125", "Intro"),
+            course("C", "999", "Short Department"),
+            course("ECE", "120", "Intro"),
+            course("CS", "099", "Padded"),
+            course("CS", "100", "Hundred"));
+    for (Summary first : courses) {
+      for (Summary second : courses) {
+        if (first.getNumber().length() == second.getNumber().length()) {
+          assertThat(compare(Summary.COMPARATOR, first, second))
+              .isEqualTo(compare(STRING_ORDER, first, second));
+        }
+      }
+    }
+  }
+
+  @Test(timeout = 1000L)
+  public void testNumbersOrderByValue() {
+    Summary cs999 = course("CS", "999", "Nines");
+    Summary cs1000 = course("CS", "1000", "Thousand");
+    Summary cs99 = course("CS", "99", "Ninety Nine");
+    // The string order put these by their first digit
+    assertThat(compare(STRING_ORDER, cs1000, cs999)).isEqualTo(-1);
+    assertThat(compare(STRING_ORDER, cs999, cs99)).isEqualTo(1);
+    assertThat(sorted(Arrays.asList(cs1000, cs999, cs99), Summary.COMPARATOR))
+        .containsExactly(cs99, cs999, cs1000)
+        .inOrder();
+    // Departments still come first
+    Summary ece1 = course("ECE", "1", "One");
+    assertThat(compare(Summary.COMPARATOR, cs1000, ece1)).isEqualTo(-1);
+  }
+
+  @Test(timeout = 1000L)
+  public void testLeadingZerosBreakTies() {
+    Summary padded = course("CS", "099", "Same");
+    Summary plain = course("CS", "99", "Same");
+    Summary doublePadded = course("CS", "0099", "Same");
+    // Equal in value and title, yet distinct courses, so they must not compare equal
+    assertThat(compare(Summary.COMPARATOR, padded, plain)).isEqualTo(-1);
+    assertThat(compare(Summary.COMPARATOR, plain, padded)).isEqualTo(1);
+    // Among equal values the numbers as written decide, as they did before
+    assertThat(compare(Summary.COMPARATOR, padded, plain))
+        .isEqualTo(compare(STRING_ORDER, padded, plain));
+    assertThat(compare(Summary.COMPARATOR, doublePadded, padded))
+        .isEqualTo(compare(STRING_ORDER, doublePadded, padded));
+    assertThat(compare(Summary.COMPARATOR, padded, course("CS", "099", "Same"))).isEqualTo(0);
+
+    // Titles still come before the numbers as written
+    Summary other = course("CS", "99", "Other");
+    assertThat(compare(Summary.COMPARATOR, other, padded)).isEqualTo(-1);
+
+    // So the sorted order no longer depends on the order of the input
+    List<Summary> expected = Arrays.asList(other, doublePadded, padded, plain);
+    for (int seed = 0; seed < 10; seed++) {
+      List<Summary> shuffled = new ArrayList<>(expected);
+      Collections.shuffle(shuffled, new Random(seed));
+      assertThat(sorted(shuffled, Summary.COMPARATOR))
+          .containsExactlyElementsIn(expected)
+          .inOrder();
+    }
+  }
+
+  @Test(timeout = 1000L)
+  public void testMissingTitleOrdersAsEmpty() {
+    Summary untitled = course("CS", "125", null);
+    Summary empty = course("CS", "125", "");
+    Summary titled = course("CS", "125", "Intro");
+    assertThat(compare(Summary.COMPARATOR, untitled, empty)).isEqualTo(0);
+    assertThat(compare(Summary.COMPARATOR, untitled, titled)).isEqualTo(-1);
+    assertThat(compare(Summary.COMPARATOR, course("CS", "124", "Other"), untitled)).isEqualTo(-1);
+  }
+}
@@ -0,0 +1,115 @@
+package edu.illinois.cs.cs125.fall2020.mp.network;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+
+/*
+ * Tests for the on-disk catalog store: bodies come back byte for byte as stored, the least
+ * recently used responses are evicted once the store is over budget, and unreadable files are
+ * discarded.
+ *
+ * Runs under Robolectric because the store reports errors through android.util.Log.
+ */
+@RunWith(AndroidJUnit4.class)
+public final class CatalogStoreTest {
+  private static final String ETAG = "\"etag\"";
+  private static final int BODY_BYTES = 100;
+  // Room for two stored bodies and their headers, but not three
+  private static final long BUDGET = 2 * BODY_BYTES + 50;
+  private static final long LONG_AGO = 1000000000L;
+
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private File directory;
+  private CatalogStore store;
+
+  @Before
+  public void setUp() throws IOException {
+    directory = temporaryFolder.newFolder();
+    store = new CatalogStore(directory, BUDGET);
+  }
+
+  private static byte[] body(final char fill) {
+    byte[] body = new byte[BODY_BYTES];
+    Arrays.fill(body, (byte) fill);
+    return body;
+  }
+
+  // Make every stored response look as if it was last used long ago
+  private void age() {
+    for (File file : directory.listFiles()) {
+      assertThat(file.setLastModified(LONG_AGO)).isTrue();
+    }
+  }
+
+  @Test(timeout = 10000L)
+  public void testStoresBodiesUnchanged() throws IOException {
+    assertThat(store.get("summary")).isNull();
+
+    // Formatting and unknown fields are kept, since the body is stored as served
+    byte[] served =
+        "[ {\"department\" : \"CS\",\n \"extra\": 1} ]".getBytes(StandardCharsets.UTF_8);
+    store.put("summary", ETAG, served);
+    CatalogStore.Entry entry = store.get("summary");
+    assertThat(entry.getETag()).isEqualTo(ETAG);
+    assertThat(entry.getData()).isEqualTo(served);
+
+    store.put("summary", "\"other\"", body('a'));
+    entry = store.get("summary");
+    assertThat(entry.getETag()).isEqualTo("\"other\"");
+    assertThat(entry.getData()).isEqualTo(body('a'));
+    assertThat(directory.listFiles().length).isEqualTo(1);
+  }
+
+  @Test(timeout = 10000L)
+  public void testEvictsLeastRecentlyUsed() throws IOException {
+    store.put("first", ETAG, body('a'));
+    store.put("second", ETAG, body('b'));
+    age();
+    // Reading the first response makes the second the least recently used
+    assertThat(store.get("first")).isNotNull();
+    store.put("third", ETAG, body('c'));
+
+    assertThat(store.get("second")).isNull();
+    assertThat(store.get("first").getData()).isEqualTo(body('a'));
+    assertThat(store.get("third").getData()).isEqualTo(body('c'));
+    long total = 0;
+    for (File file : directory.listFiles()) {
+      total += file.length();
+    }
+    assertThat(total).isAtMost(BUDGET);
+  }
+
+  @Test(timeout = 10000L)
+  public void testKeepsResponseLargerThanBudget() throws IOException {
+    store.put("small", ETAG, body('a'));
+    age();
+    byte[] large = new byte[(int) BUDGET * 2];
+    store.put("large", ETAG, large);
+    assertThat(store.get("small")).isNull();
+    assertThat(store.get("large").getData()).isEqualTo(large);
+  }
+
+  @Test(timeout = 10000L)
+  public void testDiscardsUnreadableFiles() throws IOException {
+    store.put("summary", ETAG, body('a'));
+    File[] files = directory.listFiles();
+    assertThat(files.length).isEqualTo(1);
+    try (FileOutputStream output = new FileOutputStream(files[0])) {
+      output.write(new byte[] {0, 2, 'x'});
+    }
+    assertThat(store.get("summary")).isNull();
+    assertThat(files[0].exists()).isFalse();
+  }
+}
@@ -0,0 +1,116 @@
+package edu.illinois.cs.cs125.fall2020.mp.network;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+import android.util.Log;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import edu.illinois.cs.cs125.fall2020.mp.models.Summary;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.LooperMode;
+
+/*
+ * Benchmark for the client's response cache: replays list and detail navigation against the local
+ * server and compares a cold pass with a warm one.
+ *
+ * The client is shared with the rest of the test run, so earlier tests may already have warmed
+ * some of the cache. Only the warm pass is checked; the cold pass is logged for comparison.
+ */
+@RunWith(AndroidJUnit4.class)
+@LooperMode(LooperMode.Mode.PAUSED)
+public final class ClientCacheTest {
+  private static final String TAG = ClientCacheTest.class.getSimpleName();
+  private static final int COURSES_VISITED = 20;
+  private static final long TIMEOUT_SECONDS = 10;
+
+  /** Counts read from the client's metrics before and after a pass. */
+  private static final class Counts {
+    private final long memoryHits;
+    private final long diskHits;
+    private final long lookupMisses;
+    private final long cacheHits;
+    private final long cacheMisses;
+
+    private Counts(final ClientMetrics metrics) {
+      memoryHits = metrics.getMemoryHits();
+      diskHits = metrics.getDiskHits();
+      lookupMisses = metrics.getLookupMisses();
+      long hits = 0;
+      long misses = 0;
+      for (ClientMetrics.Endpoint endpoint : metrics.getEndpoints().values()) {
+        hits += endpoint.getCacheHits();
+        misses += endpoint.getCacheMisses();
+      }
+      cacheHits = hits;
+      cacheMisses = misses;
+    }
+  }
+
+  // Open the course list, then each course's detail page and back to the list again
+  private static long replay(final Client client, final String clientID) throws Exception {
+    long start = System.nanoTime();
+    Summary[] summaries =
+        client.getSummaryAsync("2020", "fall").get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    List<Summary> visited = Arrays.asList(summaries).subList(0, COURSES_VISITED);
+    for (Summary summary : visited) {
+      client.getCourseAsync(summary).get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+      client.getRatingAsync(summary, clientID).get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+      client.getSummaryAsync("2020", "fall").get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    }
+    long elapsed = System.nanoTime() - start;
+    // Background revalidations of stored catalog results may still be finishing
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS);
+    while (client.getMetrics().getInFlight() > 0) {
+      if (System.nanoTime() - deadline > 0) {
+        fail("Requests still in flight after " + TIMEOUT_SECONDS + " s");
+      }
+      Thread.sleep(1);
+    }
+    return elapsed;
+  }
+
+  private static void report(final String pass, final long nanos, final Counts before) {
+    Counts after = new Counts(Client.start().getMetrics());
+    Log.i(
+        TAG,
+        String.format(
+            Locale.US,
+            "%s pass: %.1f ms, requests answered from cache %d, from network %d, "
+                + "cache lookups: memory %d, disk %d, missed %d",
+            pass,
+            nanos / 1e6,
+            after.cacheHits - before.cacheHits,
+            after.cacheMisses - before.cacheMisses,
+            after.memoryHits - before.memoryHits,
+            after.diskHits - before.diskHits,
+            after.lookupMisses - before.lookupMisses));
+  }
+
+  @Test(timeout = 60000L)
+  public void testNavigationReplayIsAnsweredFromMemory() throws Exception {
+    Client client = Client.start();
+    String clientID = UUID.randomUUID().toString();
+
+    Counts beforeCold = new Counts(client.getMetrics());
+    long cold = replay(client, clientID);
+    report("Cold", cold, beforeCold);
+
+    Counts beforeWarm = new Counts(client.getMetrics());
+    long warm = replay(client, clientID);
+    report("Warm", warm, beforeWarm);
+
+    // Every cacheable request of the warm pass is answered from the memory tier
+    Counts afterWarm = new Counts(client.getMetrics());
+    assertThat(afterWarm.cacheMisses - beforeWarm.cacheMisses).isEqualTo(0L);
+    assertThat(afterWarm.cacheHits - beforeWarm.cacheHits).isAtLeast((long) COURSES_VISITED * 2);
+    assertThat(afterWarm.lookupMisses - beforeWarm.lookupMisses).isEqualTo(0L);
+    assertThat(afterWarm.diskHits - beforeWarm.diskHits).isEqualTo(0L);
+    assertThat(afterWarm.memoryHits - beforeWarm.memoryHits).isAtLeast((long) COURSES_VISITED * 2);
+  }
+}
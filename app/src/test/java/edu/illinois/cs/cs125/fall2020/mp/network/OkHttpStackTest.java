@@ -0,0 +1,169 @@
+package edu.illinois.cs.cs125.fall2020.mp.network;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.util.Log;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import com.android.volley.NetworkResponse;
+import com.android.volley.Request;
+import com.android.volley.toolbox.BaseHttpStack;
+import com.android.volley.toolbox.BasicNetwork;
+import com.android.volley.toolbox.HttpResponse;
+import com.android.volley.toolbox.HurlStack;
+import com.android.volley.toolbox.StringRequest;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import edu.illinois.cs.cs125.fall2020.mp.application.CourseableApplication;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.LooperMode;
+
+/*
+ * Tests for the OkHttp stack: it must answer exactly like Volley's HurlStack under concurrent
+ * requests to the local server, and a response whose body is never read must not keep its host's
+ * permit. The comparison also logs the time each stack took.
+ */
+@RunWith(AndroidJUnit4.class)
+@LooperMode(LooperMode.Mode.PAUSED)
+public final class OkHttpStackTest {
+  private static final String TAG = OkHttpStackTest.class.getSimpleName();
+  private static final int THREADS = 8;
+  private static final int REQUESTS = 400;
+  private static final int COURSES = 20;
+  private static final int MAX_CONNECTIONS_PER_HOST = 4;
+
+  private static StringRequest get(final String url) {
+    return new StringRequest(Request.Method.GET, url, response -> {}, error -> {});
+  }
+
+  private static String read(final InputStream input) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    byte[] buffer = new byte[1024];
+    for (int count = input.read(buffer); count >= 0; count = input.read(buffer)) {
+      bytes.write(buffer, 0, count);
+    }
+    return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+  }
+
+  @Test(timeout = 10000L)
+  public void testUnreadBodiesReleaseTheirHost() throws Exception {
+    MockWebServer server = new MockWebServer();
+    for (int i = 0; i < 3; i++) {
+      server.enqueue(new MockResponse().setBody("body " + i));
+    }
+    server.start();
+    try {
+      // With one permit per host, a permit held by an unread body would block the next request
+      OkHttpStack stack = new OkHttpStack(1);
+      String url = server.url("/").toString();
+      HttpResponse response = null;
+      for (int i = 0; i < 3; i++) {
+        response = stack.executeRequest(get(url), Collections.emptyMap());
+        assertThat(response.getStatusCode()).isEqualTo(HttpURLConnection.HTTP_OK);
+      }
+      // Callers that do read the body still get all of it
+      assertThat(read(response.getContent())).isEqualTo("body 2");
+      assertThat(response.getContentLength()).isEqualTo("body 2".length());
+    } finally {
+      server.shutdown();
+    }
+  }
+
+  // The summary list followed by the first few courses in it
+  private static List<String> urls() throws Exception {
+    String summaryUrl = CourseableApplication.SERVER_URL + "summary/2020/fall";
+    NetworkResponse summaries = new BasicNetwork(new HurlStack()).performRequest(get(summaryUrl));
+    JsonNode nodes = new ObjectMapper().readTree(summaries.data);
+    List<String> urls = new ArrayList<>();
+    urls.add(summaryUrl);
+    for (int i = 0; i < COURSES; i++) {
+      JsonNode node = nodes.get(i);
+      urls.add(
+          CourseableApplication.SERVER_URL
+              + "course/"
+              + node.get("year").asText()
+              + "/"
+              + node.get("semester").asText()
+              + "/"
+              + node.get("department").asText()
+              + "/"
+              + node.get("number").asText());
+    }
+    return urls;
+  }
+
+  // Send the requests from several threads at once, returning each URL's body
+  private static Map<String, byte[]> fetchAll(
+      final String name, final BaseHttpStack stack, final List<String> urls) throws Exception {
+    BasicNetwork network = new BasicNetwork(stack);
+    Map<String, byte[]> bodies = new ConcurrentHashMap<>();
+    ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+    try {
+      long start = System.nanoTime();
+      List<Future<?>> futures = new ArrayList<>();
+      for (int i = 0; i < REQUESTS; i++) {
+        String url = urls.get(i % urls.size());
+        futures.add(
+            executor.submit(
+                () -> {
+                  NetworkResponse response = network.performRequest(get(url));
+                  assertThat(response.statusCode).isEqualTo(HttpURLConnection.HTTP_OK);
+                  byte[] previous = bodies.putIfAbsent(url, response.data);
+                  if (previous != null) {
+                    assertThat(Arrays.equals(previous, response.data)).isTrue();
+                  }
+                  return null;
+                }));
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+      Log.i(
+          TAG,
+          String.format(
+              Locale.US,
+              "%s: %d requests from %d threads in %.1f ms",
+              name,
+              REQUESTS,
+              THREADS,
+              (System.nanoTime() - start) / 1e6));
+    } finally {
+      executor.shutdown();
+    }
+    return bodies;
+  }
+
+  @Test(timeout = 60000L)
+  public void testConcurrentRequestsMatchHurlStack() throws Exception {
+    Server.start();
+    assertThat(Server.awaitReady(10, TimeUnit.SECONDS)).isTrue();
+    List<String> urls = urls();
+
+    Map<String, byte[]> hurl = fetchAll("HurlStack", new HurlStack(), urls);
+    Map<String, byte[]> okHttp =
+        fetchAll("OkHttpStack", new OkHttpStack(MAX_CONNECTIONS_PER_HOST), urls);
+
+    assertThat(okHttp.keySet()).containsExactlyElementsIn(hurl.keySet());
+    for (String url : urls) {
+      assertThat(Arrays.equals(okHttp.get(url), hurl.get(url))).isTrue();
+    }
+  }
+}
@@ -0,0 +1,129 @@
+package edu.illinois.cs.cs125.fall2020.mp.network;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import edu.illinois.cs.cs125.fall2020.mp.models.Rating;
+import edu.illinois.cs.cs125.fall2020.mp.models.Summary;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.LooperMode;
+
+/*
+ * Tests for sending queued ratings in batches: ratings the server rejects are dropped without
+ * holding back the rest, the latest of several quickly flushed ratings is the one that sticks,
+ * and queued ratings are reported on the client's delivery thread.
+ */
+@RunWith(AndroidJUnit4.class)
+@LooperMode(LooperMode.Mode.PAUSED)
+public final class RatingBatchTest {
+  private static final Summary CS125 =
+      new Summary("2020", "fall", "CS", "125", "Introduction to Computer Science");
+  private static final Summary UNKNOWN = new Summary("2020", "fall", "CS", "99999", "Nothing");
+  private static final long TIMEOUT_SECONDS = 10;
+
+  // Poll the server until it has the expected rating, or the deadline passes
+  private static double awaitRating(
+      final Client client, final Summary summary, final String clientID, final double expected)
+      throws Exception {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS);
+    double rating = Rating.NOT_RATED;
+    while (rating != expected && System.nanoTime() < deadline) {
+      rating =
+          client
+              .getRatingAsync(summary, clientID)
+              .get(TIMEOUT_SECONDS, TimeUnit.SECONDS)
+              .getRating();
+      Thread.sleep(10);
+    }
+    return rating;
+  }
+
+  @Test(timeout = 30000L)
+  public void testRejectedRatingsAreDropped() throws Exception {
+    Client client = Client.start();
+    String clientID = UUID.randomUUID().toString();
+    client.queueRating(UNKNOWN, new Rating(clientID, 1.0));
+    client.queueRating(CS125, new Rating(clientID, 3.0));
+    client.flushRatings();
+    assertThat(awaitRating(client, CS125, clientID, 3.0)).isEqualTo(3.0);
+
+    // Once dropped, the unknown course's rating is no longer answered from the queue
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS);
+    boolean dropped = false;
+    while (!dropped && System.nanoTime() < deadline) {
+      try {
+        client.getRatingAsync(UNKNOWN, clientID).get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        Thread.sleep(10);
+      } catch (ExecutionException e) {
+        dropped = true;
+      }
+    }
+    assertThat(dropped).isTrue();
+  }
+
+  @Test(timeout = 10000L)
+  public void testMalformedRatingsAreNotQueued() {
+    Client client = Client.start();
+    Rating[] ratings = {
+      new Rating("not-a-uuid", 1.0),
+      new Rating(UUID.randomUUID().toString(), 9.0),
+      new Rating(UUID.randomUUID().toString(), -2.0)
+    };
+    for (Rating rating : ratings) {
+      try {
+        client.queueRating(CS125, rating);
+        fail("Queueing a malformed rating should fail");
+      } catch (IllegalArgumentException e) {
+        // Expected
+      }
+    }
+    try {
+      client.queueRating(new Summary("2020", "fall", "CS", null, "No Number"), ratings[1]);
+      fail("Queueing a rating for an incomplete course should fail");
+    } catch (IllegalArgumentException e) {
+      // Expected
+    }
+  }
+
+  @Test(timeout = 30000L)
+  public void testLatestRatingWins() throws Exception {
+    Client client = Client.start();
+    String clientID = UUID.randomUUID().toString();
+    // Each flush asks for a batch while the previous one may still be in flight
+    for (int rating = 1; rating <= 5; rating++) {
+      client.queueRating(CS125, new Rating(clientID, rating));
+      client.flushRatings();
+    }
+    assertThat(awaitRating(client, CS125, clientID, 5.0)).isEqualTo(5.0);
+    // Nothing older arrives afterwards
+    Thread.sleep(500);
+    assertThat(awaitRating(client, CS125, clientID, 5.0)).isEqualTo(5.0);
+  }
+
+  @Test(timeout = 10000L)
+  public void testQueuedRatingsAreDelivered() throws Exception {
+    Client client = Client.start();
+    String clientID = UUID.randomUUID().toString();
+    client.queueRating(CS125, new Rating(clientID, 2.0));
+    CompletableFuture<Thread> delivered = new CompletableFuture<>();
+    CompletableFuture<Double> rating = new CompletableFuture<>();
+    client.getRating(
+        CS125,
+        clientID,
+        new Client.CourseClientCallbacks() {
+          @Override
+          public void yourRating(final Summary summary, final Rating setRating) {
+            rating.complete(setRating.getRating());
+            delivered.complete(Thread.currentThread());
+          }
+        });
+    assertThat(rating.get(TIMEOUT_SECONDS, TimeUnit.SECONDS)).isEqualTo(2.0);
+    assertThat(delivered.get()).isNotSameInstanceAs(Thread.currentThread());
+  }
+}
@@ -0,0 +1,100 @@
+package edu.illinois.cs.cs125.fall2020.mp.network;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import edu.illinois.cs.cs125.fall2020.mp.models.Rating;
+import edu.illinois.cs.cs125.fall2020.mp.models.Summary;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.LooperMode;
+
+/*
+ * Tests for loading the client's rating journal: unreadable journals and entries the server would
+ * reject are skipped without affecting the usable entries, and loading happens in the background.
+ *
+ * The client is shared with the rest of the test run, so journals are written to temporary files
+ * that outlive each test.
+ */
+@RunWith(AndroidJUnit4.class)
+@LooperMode(LooperMode.Mode.PAUSED)
+public final class RatingJournalTest {
+  private static final Summary CS125 =
+      new Summary("2020", "fall", "CS", "125", "Introduction to Computer Science");
+  private static final long TIMEOUT_SECONDS = 10;
+
+  private static File journal(final String contents) throws IOException {
+    File journal = File.createTempFile("ratings", ".json");
+    try (FileOutputStream output = new FileOutputStream(journal)) {
+      output.write(contents.getBytes(StandardCharsets.UTF_8));
+    }
+    return journal;
+  }
+
+  private static String entry(final String course, final String id, final String rating) {
+    return "{\"course\":" + course + ",\"rating\":{\"id\":" + id + ",\"rating\":" + rating + "}}";
+  }
+
+  @Test(timeout = 30000L)
+  public void testSkipsBadEntries() throws Exception {
+    Client client = Client.start();
+    String clientID = UUID.randomUUID().toString();
+    String course =
+        "{\"year\":\"2020\",\"semester\":\"fall\",\"department\":\"CS\",\"number\":\"125\"}";
+    String id = "\"" + clientID + "\"";
+    String contents =
+        "["
+            + "null,"
+            + "{},"
+            + "{\"course\":null,\"rating\":null},"
+            + entry(course, "null", "1.0")
+            + ","
+            + entry(course, "\"not-a-uuid\"", "1.0")
+            + ","
+            + entry(course, "\"" + UUID.randomUUID() + "\"", "9.0")
+            + ","
+            + entry("{\"year\":\"2020\"}", "\"" + UUID.randomUUID() + "\"", "1.0")
+            + ","
+            + "{\"course\":\"CS 125\",\"rating\":[]},"
+            + entry(course, id, "4.0")
+            + "]";
+    File journal = journal(contents);
+    client.setRatingJournal(journal);
+
+    // The usable entry is queued, then sent, and the server ends up with it either way
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS);
+    double rating = Rating.NOT_RATED;
+    while (rating != 4.0 && System.nanoTime() < deadline) {
+      rating =
+          client.getRatingAsync(CS125, clientID).get(TIMEOUT_SECONDS, TimeUnit.SECONDS).getRating();
+      Thread.sleep(10);
+    }
+    assertThat(rating).isEqualTo(4.0);
+  }
+
+  @Test(timeout = 30000L)
+  public void testSurvivesUnreadableJournals() throws Exception {
+    Client client = Client.start();
+    for (String contents : new String[] {"", "{", "{\"not\":\"an array\"}", "42", "[1, 2"}) {
+      client.setRatingJournal(journal(contents));
+    }
+    // Ratings still work once the journals have been looked at
+    String clientID = UUID.randomUUID().toString();
+    client.queueRating(CS125, new Rating(clientID, 2.0));
+    client.flushRatings();
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS);
+    double rating = Rating.NOT_RATED;
+    while (rating != 2.0 && System.nanoTime() < deadline) {
+      rating =
+          client.getRatingAsync(CS125, clientID).get(TIMEOUT_SECONDS, TimeUnit.SECONDS).getRating();
+      Thread.sleep(10);
+    }
+    assertThat(rating).isEqualTo(2.0);
+  }
+}
@@ -0,0 +1,364 @@
+package edu.illinois.cs.cs125.fall2020.mp.network;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+import android.util.Log;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import edu.illinois.cs.cs125.fall2020.mp.models.AggregateRating;
+import edu.illinois.cs.cs125.fall2020.mp.models.CourseKey;
+import edu.illinois.cs.cs125.fall2020.mp.models.Rating;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+
+/*
+ * Tests for the rating write-ahead log: replay after a restart, recovery from torn or corrupt
+ * tails, compaction, failed writes, and a throughput benchmark for concurrent durable writes.
+ *
+ * Runs under Robolectric because the log reports errors through android.util.Log.
+ */
+@RunWith(AndroidJUnit4.class)
+public final class RatingLogTest {
+  private static final String TAG = RatingLogTest.class.getSimpleName();
+  private static final CourseKey CS125 = CourseKey.of("2020", "fall", "CS", "125");
+  private static final CourseKey CS225 = CourseKey.of("2020", "fall", "CS", "225");
+
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private File directory;
+
+  @Before
+  public void setUp() {
+    directory = new File(temporaryFolder.getRoot(), "ratings");
+  }
+
+  private static RatingStore.ClientKey client() {
+    return RatingStore.ClientKey.parse(UUID.randomUUID().toString());
+  }
+
+  private RatingStore open() throws IOException {
+    RatingStore store = new RatingStore();
+    store.attach(RatingLog.open(directory, store));
+    return store;
+  }
+
+  private File[] segments() {
+    File[] files = directory.listFiles((dir, name) -> name.endsWith(".log"));
+    Arrays.sort(files, (first, second) -> Long.compare(generation(first), generation(second)));
+    return files;
+  }
+
+  private static long generation(final File segment) {
+    String name = segment.getName();
+    return Long.parseLong(name.substring(name.indexOf('-') + 1, name.indexOf('.')));
+  }
+
+  // The last segment holding records; recovery always opens a new, empty segment after it
+  private File lastWrittenSegment() {
+    File last = null;
+    for (File segment : segments()) {
+      if (segment.length() > 0) {
+        last = segment;
+      }
+    }
+    assertThat(last).isNotNull();
+    return last;
+  }
+
+  @Test(timeout = 10000L)
+  public void testReplayRestoresRatings() throws IOException {
+    RatingStore.ClientKey first = client();
+    RatingStore.ClientKey second = client();
+    RatingStore.ClientKey third = client();
+
+    RatingStore store = open();
+    store.put(CS125, first, 1.0);
+    store.put(CS125, first, 4.0);
+    store.put(CS125, second, 2.5);
+    store.put(CS125, third, 5.0);
+    store.put(CS125, third, Rating.NOT_RATED);
+    store.putAll(CS225, Arrays.asList(first, second, first), new double[] {3.0, 2.0, 5.0});
+
+    RatingStore recovered = open();
+    assertThat(recovered.get(CS125, first)).isEqualTo(4.0);
+    assertThat(recovered.get(CS125, second)).isEqualTo(2.5);
+    assertThat(recovered.get(CS125, third)).isEqualTo(Rating.NOT_RATED);
+    assertThat(recovered.get(CS225, first)).isEqualTo(5.0);
+    assertThat(recovered.aggregate(CS125).getCount()).isEqualTo(2);
+    assertThat(recovered.aggregate(CS125).getAverage()).isEqualTo(3.25);
+    assertThat(recovered.aggregate(CS225).getCount()).isEqualTo(2);
+  }
+
+  @Test(timeout = 10000L)
+  public void testTornTailIsDropped() throws IOException {
+    RatingStore.ClientKey first = client();
+    RatingStore.ClientKey second = client();
+
+    RatingStore store = open();
+    store.put(CS125, first, 3.0);
+    store.put(CS125, second, 4.0);
+
+    // A crash in the middle of a write leaves a length prefix and part of a record
+    try (FileOutputStream output = new FileOutputStream(lastWrittenSegment(), true)) {
+      output.write(new byte[] {0, 0, 0, 50, 1, 2, 3});
+    }
+    RatingStore recovered = open();
+    assertThat(recovered.get(CS125, first)).isEqualTo(3.0);
+    assertThat(recovered.get(CS125, second)).isEqualTo(4.0);
+
+    // Writes made after recovery survive the next restart
+    recovered.put(CS125, first, 1.0);
+    RatingStore again = open();
+    assertThat(again.get(CS125, first)).isEqualTo(1.0);
+    assertThat(again.get(CS125, second)).isEqualTo(4.0);
+  }
+
+  @Test(timeout = 10000L)
+  public void testCorruptRecordIsDropped() throws IOException {
+    RatingStore.ClientKey first = client();
+    RatingStore.ClientKey second = client();
+
+    RatingStore store = open();
+    store.put(CS125, first, 3.0);
+    store.put(CS125, second, 4.0);
+
+    // Flip a bit in the last record's rating so its checksum no longer matches
+    File segment = lastWrittenSegment();
+    try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+      long position = file.length() - Integer.BYTES - 1;
+      file.seek(position);
+      int value = file.read();
+      file.seek(position);
+      file.write(value ^ 1);
+    }
+    RatingStore recovered = open();
+    assertThat(recovered.get(CS125, first)).isEqualTo(3.0);
+    assertThat(recovered.get(CS125, second)).isEqualTo(Rating.NOT_RATED);
+  }
+
+  @Test(timeout = 10000L)
+  public void testCompactionReplacesSegmentsWithSnapshot() throws IOException {
+    RatingStore.ClientKey first = client();
+    RatingStore.ClientKey second = client();
+
+    RatingStore store = new RatingStore();
+    RatingLog log = RatingLog.open(directory, store);
+    store.attach(log);
+    store.put(CS125, first, 2.0);
+    store.put(CS225, second, 5.0);
+    store.put(CS225, first, 1.0);
+    long before = generation(segments()[segments().length - 1]);
+
+    assertThat(log.compact()).isTrue();
+    assertThat(new File(directory, "ratings.snapshot").exists()).isTrue();
+    File[] remaining = segments();
+    assertThat(remaining.length).isEqualTo(1);
+    assertThat(generation(remaining[0])).isEqualTo(before + 1);
+    assertThat(remaining[0].length()).isEqualTo(0L);
+
+    // Writes after the snapshot land in the new segment and are replayed on top of it
+    store.put(CS125, first, 3.0);
+    store.put(CS225, second, Rating.NOT_RATED);
+    RatingStore recovered = open();
+    assertThat(recovered.get(CS125, first)).isEqualTo(3.0);
+    assertThat(recovered.get(CS225, first)).isEqualTo(1.0);
+    assertThat(recovered.get(CS225, second)).isEqualTo(Rating.NOT_RATED);
+    assertThat(recovered.aggregate(CS225).getCount()).isEqualTo(1);
+  }
+
+  @Test(timeout = 10000L)
+  public void testFailedWriteFailsWholeBatch() throws Exception {
+    RatingStore store = new RatingStore();
+    RatingLog log = RatingLog.open(directory, store);
+    long first = log.append(CS125, client(), 2.0);
+    long second = log.append(CS125, client(), 3.0);
+    closeChannel(log);
+
+    // The first caller flushes both records; the second must not be told its write is durable
+    try {
+      log.sync(first);
+      fail("sync should fail");
+    } catch (IOException expected) {
+      // Expected
+    }
+    try {
+      log.sync(second);
+      fail("sync should fail");
+    } catch (IOException expected) {
+      // Expected
+    }
+  }
+
+  @Test(timeout = 10000L)
+  public void testFailedPutLeavesStoreUnchanged() throws Exception {
+    RatingStore.ClientKey first = client();
+    RatingStore.ClientKey second = client();
+
+    RatingStore store = new RatingStore();
+    RatingLog log = RatingLog.open(directory, store);
+    store.attach(log);
+    store.put(CS125, first, 2.0);
+    closeChannel(log);
+
+    try {
+      store.put(CS125, first, 5.0);
+      fail("put should fail");
+    } catch (IOException expected) {
+      // Expected
+    }
+    try {
+      store.putAll(CS125, Arrays.asList(first, second), new double[] {4.0, 4.0});
+      fail("putAll should fail");
+    } catch (IOException expected) {
+      // Expected
+    }
+    assertThat(store.get(CS125, first)).isEqualTo(2.0);
+    assertThat(store.get(CS125, second)).isEqualTo(Rating.NOT_RATED);
+    assertThat(store.aggregate(CS125).getCount()).isEqualTo(1);
+
+    RatingStore recovered = open();
+    assertThat(recovered.get(CS125, first)).isEqualTo(2.0);
+    assertThat(recovered.get(CS125, second)).isEqualTo(Rating.NOT_RATED);
+  }
+
+  @Test(timeout = 10000L)
+  public void testFailedBatchesAreForgotten() throws Exception {
+    RatingStore store = new RatingStore();
+    RatingLog log = RatingLog.open(directory, store);
+    store.attach(log);
+    closeChannel(log);
+    for (int i = 0; i < 10; i++) {
+      try {
+        store.put(CS125, client(), 1.0);
+        fail("put should fail");
+      } catch (IOException expected) {
+        // Expected
+      }
+    }
+    long first = log.append(CS125, client(), 2.0);
+    long second = log.append(CS125, client(), 3.0);
+    for (long sequence : new long[] {first, second}) {
+      try {
+        log.sync(sequence);
+        fail("sync should fail");
+      } catch (IOException expected) {
+        // Expected
+      }
+    }
+    // Every writer has been told, so nothing is left to check later writes against
+    Field field = RatingLog.class.getDeclaredField("failed");
+    field.setAccessible(true);
+    assertThat((List<?>) field.get(log)).isEmpty();
+  }
+
+  @Test(timeout = 10000L)
+  public void testWritesContinueDuringSnapshot() throws Exception {
+    RatingStore store = open();
+    RatingStore.ClientKey first = client();
+    store.put(CS125, first, 2.0);
+
+    // Hold the snapshot in its visitor while another thread writes
+    CountDownLatch visiting = new CountDownLatch(1);
+    CountDownLatch written = new CountDownLatch(1);
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      Future<?> snapshot =
+          executor.submit(
+              () -> {
+                store.forEach(
+                    (course, client, rating) -> {
+                      visiting.countDown();
+                      try {
+                        assertThat(written.await(5, TimeUnit.SECONDS)).isTrue();
+                      } catch (InterruptedException e) {
+                        throw new IOException(e);
+                      }
+                    });
+                return null;
+              });
+      assertThat(visiting.await(5, TimeUnit.SECONDS)).isTrue();
+      store.put(CS225, client(), 4.0);
+      written.countDown();
+      snapshot.get();
+    } finally {
+      executor.shutdown();
+    }
+    assertThat(store.aggregate(CS225).getCount()).isEqualTo(1);
+  }
+
+  private static void closeChannel(final RatingLog log) throws Exception {
+    Field field = RatingLog.class.getDeclaredField("channel");
+    field.setAccessible(true);
+    ((FileChannel) field.get(log)).close();
+  }
+
+  /*
+   * Benchmark: concurrent durable writes should share fsyncs. Logs the throughput so changes to
+   * the log can be compared, and checks that every write was applied and survives a restart.
+   */
+  @Test(timeout = 60000L)
+  public void testConcurrentWriteThroughput() throws Exception {
+    final int threads = 16;
+    final int clients = 200;
+    final int writes = 4000;
+
+    RatingStore store = open();
+    List<RatingStore.ClientKey> keys = new ArrayList<>();
+    for (int i = 0; i < clients; i++) {
+      keys.add(client());
+    }
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      long start = System.nanoTime();
+      List<Future<?>> futures = new ArrayList<>();
+      for (int i = 0; i < writes; i++) {
+        final int write = i;
+        futures.add(
+            executor.submit(
+                () -> {
+                  store.put(CS125, keys.get(write % clients), write % AggregateRating.STARS + 1);
+                  return null;
+                }));
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+      double seconds = (System.nanoTime() - start) / 1e9;
+      Log.i(
+          TAG,
+          String.format(
+              Locale.US,
+              "%d durable rating writes from %d threads: %.0f writes/s",
+              writes,
+              threads,
+              writes / seconds));
+    } finally {
+      executor.shutdown();
+    }
+
+    assertThat(store.aggregate(CS125).getCount()).isEqualTo(clients);
+    RatingStore recovered = open();
+    for (RatingStore.ClientKey key : keys) {
+      assertThat(recovered.get(CS125, key)).isEqualTo(store.get(CS125, key));
+    }
+  }
+}
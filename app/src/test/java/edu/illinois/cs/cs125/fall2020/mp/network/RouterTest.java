@@ -0,0 +1,207 @@
+package edu.illinois.cs.cs125.fall2020.mp.network;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/*
+ * Tests for the server's route table: typed path and query parameters, 404 for unknown paths
+ * versus 400 for malformed parameters, trailing and doubled slashes, methods in any case, and 405
+ * for known paths other than the root requested with another method. Requests go over HTTP, so
+ * paths reach the router as sent.
+ */
+public final class RouterTest {
+  private static final String CLIENT = "0c4f8d2e-1a2b-4c3d-9e8f-0123456789ab";
+
+  private MockWebServer server;
+  private OkHttpClient client;
+
+  // Answers with the captured parameters, separated by spaces
+  private static Router.Handler echo(final int params) {
+    return (request, match) -> {
+      StringBuilder body = new StringBuilder();
+      for (int i = 0; i < params; i++) {
+        if (i > 0) {
+          body.append(' ');
+        }
+        body.append(match.param(i));
+      }
+      if (match.query("client") != null) {
+        body.append(" client=").append(match.query("client"));
+      }
+      return new MockResponse().setBody(body.toString());
+    };
+  }
+
+  @Before
+  public void setUp() throws IOException {
+    Router router = new Router();
+    router.add("HEAD", "/", (request, match) -> new MockResponse());
+    router.add("GET", "/summary/{year}/{semester}", echo(2));
+    router.add("GET", "/course/{year:digits}/{semester}/{department}/{number:digits}", echo(4));
+    router.add("GET", "/rating/{year}?client={client:uuid}", echo(1));
+    router.add("POST", "/rating/{year}?client={client:uuid}", echo(1));
+    router.add("POST", "/ratings/batch", echo(0));
+    router.add(
+        "GET",
+        "/broken",
+        (request, match) -> {
+          throw new IllegalStateException("broken");
+        });
+
+    server = new MockWebServer();
+    server.setDispatcher(
+        new Dispatcher() {
+          @Override
+          public MockResponse dispatch(final RecordedRequest request) {
+            try {
+              return router.dispatch(request);
+            } catch (Exception e) {
+              return new MockResponse().setResponseCode(HttpURLConnection.HTTP_INTERNAL_ERROR);
+            }
+          }
+        });
+    server.start();
+    client = new OkHttpClient();
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    server.shutdown();
+  }
+
+  private Response send(final String method, final String path) throws IOException {
+    RequestBody body = null;
+    if (method.equalsIgnoreCase("POST")) {
+      body = RequestBody.create(new byte[0], null);
+    }
+    // Built from a string rather than server.url so doubled slashes are kept as sent
+    String url = "http://" + server.getHostName() + ":" + server.getPort() + path;
+    return client.newCall(new Request.Builder().url(url).method(method, body).build()).execute();
+  }
+
+  private int code(final String method, final String path) throws IOException {
+    try (Response response = send(method, path)) {
+      return response.code();
+    }
+  }
+
+  private int code(final String path) throws IOException {
+    return code("GET", path);
+  }
+
+  private String body(final String path) throws IOException {
+    try (Response response = send("GET", path)) {
+      assertThat(response.code()).isEqualTo(HttpURLConnection.HTTP_OK);
+      ResponseBody body = response.body();
+      if (body == null) {
+        fail("No body for " + path);
+      }
+      return body.string();
+    }
+  }
+
+  @Test(timeout = 10000L)
+  public void testTypedParameters() throws IOException {
+    assertThat(body("/summary/2020/fall")).isEqualTo("2020 fall");
+    assertThat(body("/course/2020/fall/CS/125")).isEqualTo("2020 fall CS 125");
+    // Untyped segments take anything, typed ones only what their type allows
+    assertThat(body("/summary/20x0/FALL")).isEqualTo("20x0 FALL");
+    assertThat(code("/course/20x0/fall/CS/125")).isEqualTo(HttpURLConnection.HTTP_BAD_REQUEST);
+    assertThat(code("/course/2020/fall/CS/12a")).isEqualTo(HttpURLConnection.HTTP_BAD_REQUEST);
+    assertThat(code("/course/2020/fall/CS/-125")).isEqualTo(HttpURLConnection.HTTP_BAD_REQUEST);
+  }
+
+  @Test(timeout = 10000L)
+  public void testUnknownVersusMalformedPaths() throws IOException {
+    // Going wrong at a fixed segment means the path is unknown
+    assertThat(code("/nothing")).isEqualTo(HttpURLConnection.HTTP_NOT_FOUND);
+    assertThat(code("/ratings")).isEqualTo(HttpURLConnection.HTTP_NOT_FOUND);
+    assertThat(code("/ratings/other")).isEqualTo(HttpURLConnection.HTTP_NOT_FOUND);
+    assertThat(code("/summary/2020/fall/extra")).isEqualTo(HttpURLConnection.HTTP_NOT_FOUND);
+    assertThat(code("/Summary/2020/fall")).isEqualTo(HttpURLConnection.HTTP_NOT_FOUND);
+    // Going wrong where a parameter is expected means the request is malformed
+    assertThat(code("/summary")).isEqualTo(HttpURLConnection.HTTP_BAD_REQUEST);
+    assertThat(code("/summary/2020")).isEqualTo(HttpURLConnection.HTTP_BAD_REQUEST);
+    assertThat(code("/course/2020/fall/CS")).isEqualTo(HttpURLConnection.HTTP_BAD_REQUEST);
+  }
+
+  @Test(timeout = 10000L)
+  public void testSlashes() throws IOException {
+    // One trailing slash is tolerated
+    assertThat(body("/summary/2020/fall/")).isEqualTo("2020 fall");
+    assertThat(body("/course/2020/fall/CS/125/")).isEqualTo("2020 fall CS 125");
+    // Doubled slashes are empty segments, which no route has
+    assertThat(code("/summary/2020/fall//")).isEqualTo(HttpURLConnection.HTTP_NOT_FOUND);
+    assertThat(code("//summary/2020/fall")).isEqualTo(HttpURLConnection.HTTP_NOT_FOUND);
+    assertThat(code("/summary//2020/fall")).isEqualTo(HttpURLConnection.HTTP_BAD_REQUEST);
+    assertThat(code("/summary/2020//fall")).isEqualTo(HttpURLConnection.HTTP_BAD_REQUEST);
+    assertThat(code("//")).isEqualTo(HttpURLConnection.HTTP_NOT_FOUND);
+  }
+
+  @Test(timeout = 10000L)
+  public void testQueryParameters() throws IOException {
+    assertThat(body("/rating/2020?client=" + CLIENT)).isEqualTo("2020 client=" + CLIENT);
+    assertThat(body("/rating/2020?other=1&client=" + CLIENT + "&more"))
+        .isEqualTo("2020 client=" + CLIENT);
+    assertThat(body("/rating/2020?client=" + CLIENT.toUpperCase()))
+        .isEqualTo("2020 client=" + CLIENT.toUpperCase());
+    // Missing, empty, or invalid required parameters are malformed requests
+    assertThat(code("/rating/2020")).isEqualTo(HttpURLConnection.HTTP_BAD_REQUEST);
+    assertThat(code("/rating/2020?")).isEqualTo(HttpURLConnection.HTTP_BAD_REQUEST);
+    assertThat(code("/rating/2020?client=")).isEqualTo(HttpURLConnection.HTTP_BAD_REQUEST);
+    assertThat(code("/rating/2020?client=abc")).isEqualTo(HttpURLConnection.HTTP_BAD_REQUEST);
+    assertThat(code("/rating/2020?client=" + CLIENT + "0"))
+        .isEqualTo(HttpURLConnection.HTTP_BAD_REQUEST);
+    assertThat(code("/rating/2020?client=" + CLIENT.replace('-', '0')))
+        .isEqualTo(HttpURLConnection.HTTP_BAD_REQUEST);
+    assertThat(code("/rating/2020?client=" + CLIENT.replace('a', 'g')))
+        .isEqualTo(HttpURLConnection.HTTP_BAD_REQUEST);
+    // Only a parameter with exactly the required name counts
+    assertThat(code("/rating/2020?myclient=" + CLIENT))
+        .isEqualTo(HttpURLConnection.HTTP_BAD_REQUEST);
+    assertThat(code("/rating/2020?clients=" + CLIENT))
+        .isEqualTo(HttpURLConnection.HTTP_BAD_REQUEST);
+  }
+
+  @Test(timeout = 10000L)
+  public void testMethods() throws IOException {
+    assertThat(code("HEAD", "/")).isEqualTo(HttpURLConnection.HTTP_OK);
+    assertThat(code("POST", "/rating/2020?client=" + CLIENT)).isEqualTo(HttpURLConnection.HTTP_OK);
+    assertThat(code("POST", "/ratings/batch")).isEqualTo(HttpURLConnection.HTTP_OK);
+    // Methods match whatever their case
+    assertThat(code("get", "/summary/2020/fall")).isEqualTo(HttpURLConnection.HTTP_OK);
+    assertThat(code("Post", "/ratings/batch")).isEqualTo(HttpURLConnection.HTTP_OK);
+    // Known paths requested with another method
+    assertThat(code("/ratings/batch")).isEqualTo(HttpURLConnection.HTTP_BAD_METHOD);
+    assertThat(code("POST", "/summary/2020/fall")).isEqualTo(HttpURLConnection.HTTP_BAD_METHOD);
+    assertThat(code("DELETE", "/rating/2020?client=" + CLIENT))
+        .isEqualTo(HttpURLConnection.HTTP_BAD_METHOD);
+    // The method is checked before query parameters, and unknown paths stay unknown
+    assertThat(code("DELETE", "/rating/2020")).isEqualTo(HttpURLConnection.HTTP_BAD_METHOD);
+    assertThat(code("DELETE", "/nothing")).isEqualTo(HttpURLConnection.HTTP_NOT_FOUND);
+    // The root only answers the startup probe, and other methods there are unknown as before
+    assertThat(code("/")).isEqualTo(HttpURLConnection.HTTP_NOT_FOUND);
+    assertThat(code("POST", "/")).isEqualTo(HttpURLConnection.HTTP_NOT_FOUND);
+  }
+
+  @Test(timeout = 10000L)
+  public void testHandlerFailures() throws IOException {
+    assertThat(code("/broken")).isEqualTo(HttpURLConnection.HTTP_INTERNAL_ERROR);
+    assertThat(code("/broken/")).isEqualTo(HttpURLConnection.HTTP_INTERNAL_ERROR);
+  }
+}
@@ -0,0 +1,144 @@
+package edu.illinois.cs.cs125.fall2020.mp.network;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import edu.illinois.cs.cs125.fall2020.mp.models.Summary;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.Before;
+import org.junit.Test;
+
+/*
+ * Tests for the BM25 course search index: ranking, heading weight, limits and ties, queries with
+ * no known terms, and reuse of the per-thread score arrays across queries and threads.
+ */
+public final class SearchIndexTest {
+  private static final Summary CS125 =
+      new Summary("2020", "fall", "CS", "125", "Introduction to Computer Science");
+  private static final Summary CS225 =
+      new Summary("2020", "fall", "CS", "225", "Data Structures and Algorithms");
+  private static final Summary CS374 =
+      new Summary("2020", "fall", "CS", "374", "Algorithms and Models of Computation");
+  private static final Summary MATH241 =
+      new Summary("2020", "fall", "MATH", "241", "Calculus III");
+  private static final Summary STAT107 =
+      new Summary("2020", "fall", "STAT", "107", "Data Science Discovery");
+
+  private SearchIndex index;
+
+  private static void add(
+      final SearchIndex.Builder builder, final Summary course, final String... body) {
+    builder.add(
+        course,
+        course.getDepartment() + " " + course.getNumber() + " " + course.getTitle(),
+        Arrays.asList(body));
+  }
+
+  @Before
+  public void setUp() {
+    SearchIndex.Builder builder = new SearchIndex.Builder();
+    add(builder, CS125, "An introduction to programming in Java and Kotlin.");
+    add(builder, CS225, "Data abstractions: lists, trees, hashing, and graphs.");
+    add(builder, CS374, "Analysis of algorithms, recursion, and dynamic programming.");
+    add(builder, MATH241, "Vector calculus in three dimensions.");
+    add(builder, STAT107, "Programming with data in Python, after CS 125 or equivalent.");
+    index = builder.build();
+  }
+
+  @Test(timeout = 1000L)
+  public void testTokenize() {
+    assertThat(SearchIndex.tokenize("CS 125: Intro-to Java!"))
+        .containsExactly("cs", "125", "intro", "to", "java")
+        .inOrder();
+    assertThat(SearchIndex.tokenize("")).isEmpty();
+    assertThat(SearchIndex.tokenize(" ,.; ")).isEmpty();
+  }
+
+  @Test(timeout = 1000L)
+  public void testRanking() {
+    // A rare term outweighs a common one
+    assertThat(index.search("kotlin programming", 10).get(0)).isEqualTo(CS125);
+    // Courses matching more of the query rank above those matching less of it
+    assertThat(index.search("data structures", 10)).containsExactly(CS225, STAT107).inOrder();
+    // Only courses sharing a term with the query are returned
+    assertThat(index.search("calculus", 10)).containsExactly(MATH241);
+    // Case, punctuation, and repeated terms do not change the results
+    assertThat(index.search("CALCULUS!! calculus", 10)).containsExactly(MATH241);
+  }
+
+  @Test(timeout = 1000L)
+  public void testHeadingWeight() {
+    // CS 125 is named in its own heading and mentioned in the body of STAT 107
+    assertThat(index.search("cs 125", 10).get(0)).isEqualTo(CS125);
+    assertThat(index.search("cs 125", 10)).contains(STAT107);
+    // A word in one course's heading beats the same word in another course's description
+    SearchIndex.Builder builder = new SearchIndex.Builder();
+    builder.add(CS125, "CS 125 Graphs", Collections.singletonList("other words here"));
+    builder.add(CS225, "CS 225 Trees", Collections.singletonList("graphs and more words"));
+    assertThat(builder.build().search("graphs", 10)).containsExactly(CS125, CS225).inOrder();
+  }
+
+  @Test(timeout = 1000L)
+  public void testLimitAndTies() {
+    List<Summary> all = index.search("cs", 10);
+    assertThat(all).hasSize(4);
+    assertThat(index.search("cs", 2)).containsExactlyElementsIn(all.subList(0, 2)).inOrder();
+    assertThat(index.search("cs", 0)).isEmpty();
+
+    // Courses with identical text score the same and keep the order they were indexed in
+    SearchIndex.Builder builder = new SearchIndex.Builder();
+    add(builder, CS225, "same");
+    add(builder, CS125, "same");
+    add(builder, CS374, "same");
+    assertThat(builder.build().search("same", 10)).containsExactly(CS225, CS125, CS374).inOrder();
+  }
+
+  @Test(timeout = 1000L)
+  public void testEmptyAndUnknownTerms() {
+    assertThat(index.search("", 10)).isEmpty();
+    assertThat(index.search("   ", 10)).isEmpty();
+    assertThat(index.search("?!", 10)).isEmpty();
+    assertThat(index.search("badminton", 10)).isEmpty();
+    // Unknown terms are ignored when other terms match
+    assertThat(index.search("badminton calculus", 10)).containsExactly(MATH241);
+    assertThat(new SearchIndex.Builder().build().search("anything", 10)).isEmpty();
+  }
+
+  @Test(timeout = 1000L)
+  public void testScoresDoNotLeakBetweenQueries() {
+    List<Summary> first = index.search("data programming", 10);
+    index.search("algorithms", 10);
+    index.search("calculus python java", 10);
+    assertThat(index.search("data programming", 10)).containsExactlyElementsIn(first).inOrder();
+    assertThat(index.search("calculus", 10)).containsExactly(MATH241);
+  }
+
+  @Test(timeout = 10000L)
+  public void testConcurrentQueries() throws Exception {
+    List<String> queries = Arrays.asList("cs", "data", "algorithms", "calculus", "programming");
+    List<List<Summary>> expected = new ArrayList<>();
+    for (String query : queries) {
+      expected.add(index.search(query, 10));
+    }
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<List<Summary>>> futures = new ArrayList<>();
+      for (int i = 0; i < 1000; i++) {
+        String query = queries.get(i % queries.size());
+        futures.add(executor.submit(() -> index.search(query, 10)));
+      }
+      for (int i = 0; i < futures.size(); i++) {
+        assertThat(futures.get(i).get())
+            .containsExactlyElementsIn(expected.get(i % queries.size()))
+            .inOrder();
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+}
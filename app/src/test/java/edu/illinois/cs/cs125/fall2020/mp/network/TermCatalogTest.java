@@ -0,0 +1,112 @@
+package edu.illinois.cs.cs125.fall2020.mp.network;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import edu.illinois.cs.cs125.fall2020.mp.models.CourseKey;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+
+/*
+ * Tests for the term catalog: bundled and directory terms, terms without files being remembered
+ * as missing, and terms whose files fail to load being tried again on the next request.
+ *
+ * Runs under Robolectric because the catalog reports errors through android.util.Log.
+ */
+@RunWith(AndroidJUnit4.class)
+public final class TermCatalogTest {
+  private static final long BUDGET = 64L * 1024 * 1024;
+  private static final String SUMMARY =
+      "[{\"year\":\"2030\",\"semester\":\"fall\",\"department\":\"CS\",\"number\":\"125\","
+          + "\"title\":\"Intro\"}]";
+  private static final String COURSES =
+      "[{\"year\":\"2030\",\"semester\":\"fall\",\"department\":\"CS\",\"number\":\"125\","
+          + "\"title\":\"Intro\",\"description\":\"Programming.\"}]";
+
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private File directory;
+  private TermCatalog catalog;
+
+  @Before
+  public void setUp() throws IOException {
+    directory = temporaryFolder.newFolder();
+    catalog = new TermCatalog(new ObjectMapper(), directory, BUDGET);
+  }
+
+  private void write(final String name, final String contents) throws IOException {
+    try (FileOutputStream output = new FileOutputStream(new File(directory, name))) {
+      output.write(contents.getBytes(StandardCharsets.UTF_8));
+    }
+  }
+
+  private void writeTerm() throws IOException {
+    write("2030_fall_summary.json", SUMMARY);
+    write("2030_fall.json", COURSES);
+  }
+
+  @Test(timeout = 10000L)
+  public void testLoadsTerms() throws IOException {
+    Term bundled = catalog.get("2020", "fall");
+    assertThat(bundled).isNotNull();
+    assertThat(bundled.getCourse(CourseKey.of("2020", "fall", "CS", "125"))).isNotNull();
+    assertThat(catalog.get("2020", "fall")).isSameInstanceAs(bundled);
+
+    writeTerm();
+    Term term = catalog.get("2030", "fall");
+    assertThat(term).isNotNull();
+    assertThat(term.getCourse(CourseKey.of("2030", "fall", "CS", "125"))).isNotNull();
+    assertThat(term.getCourse(CourseKey.of("2030", "fall", "CS", "225"))).isNull();
+  }
+
+  @Test(timeout = 10000L)
+  public void testMissingTermsAreRemembered() throws IOException {
+    assertThat(catalog.get("2030", "fall")).isNull();
+    // Files appearing later are not noticed, since the term is known to be missing
+    writeTerm();
+    assertThat(catalog.get("2030", "fall")).isNull();
+    assertThat(new TermCatalog(new ObjectMapper(), directory, BUDGET).get("2030", "fall"))
+        .isNotNull();
+
+    // A term with only one of its two files is missing too
+    write("2031_fall_summary.json", SUMMARY);
+    assertThat(catalog.get("2031", "fall")).isNull();
+  }
+
+  @Test(timeout = 10000L)
+  public void testFailedLoadsAreRetried() throws IOException {
+    write("2030_fall_summary.json", SUMMARY.substring(0, SUMMARY.length() / 2));
+    write("2030_fall.json", COURSES);
+    for (int attempt = 0; attempt < 2; attempt++) {
+      try {
+        catalog.get("2030", "fall");
+        fail("Loading a broken term should fail");
+      } catch (IOException e) {
+        // Expected, and not remembered as missing
+      }
+    }
+    // Once the file is repaired the next request loads it
+    writeTerm();
+    assertThat(catalog.get("2030", "fall")).isNotNull();
+  }
+
+  @Test(timeout = 10000L)
+  public void testInvalidNames() throws IOException {
+    writeTerm();
+    assertThat(catalog.get("", "fall")).isNull();
+    assertThat(catalog.get("2030", "")).isNull();
+    assertThat(catalog.get("20x0", "fall")).isNull();
+    assertThat(catalog.get("2030", "fall2")).isNull();
+    assertThat(catalog.get("..", "fall")).isNull();
+    assertThat(catalog.get("2030", "fall")).isNotNull();
+  }
+}